@@ -1,5 +1,8 @@
 package org.lucee.extension.ftp;
 
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -150,6 +153,19 @@ public abstract class AFTPClient {
 	 */
 	public abstract FTPFile[] listFiles(String pathname) throws IOException;
 
+	/**
+	 * Lists a directory with exact times, unlike LIST they are not in the time zone of the server and not
+	 * cut to the minute (FTP: MLSD).
+	 * 
+	 * @param pathname
+	 *            The directory to list.
+	 * @return The files of the directory, null if the server does not support it.
+	 * @exception IOException
+	 *                If an I/O error occurs while either sending a command to the server or receiving a
+	 *                reply from the server.
+	 */
+	public abstract FTPFile[] listFilesExact(String pathname) throws IOException;
+
 	/**
 	 * Removes a directory on the FTP server (if empty).
 	 * <p>
@@ -228,6 +244,26 @@ public abstract class AFTPClient {
 	 */
 	public abstract boolean retrieveFile(String remote, OutputStream local) throws IOException;
 
+	/**
+	 * Retrieves a part of a named file from the server and writes it to the given OutputStream. This
+	 * method does NOT close the given OutputStream. Only use it with the binary file type, offsets in
+	 * text files are not defined.
+	 * 
+	 * @param remote
+	 *            The name of the remote file.
+	 * @param local
+	 *            The local OutputStream to which to write the part.
+	 * @param offset
+	 *            Position in the remote file to start at.
+	 * @param length
+	 *            Number of bytes to retrieve, -1 for all up to the end of the file.
+	 * @return True if successfully completed, false if not (f.e. the server does not support restarts).
+	 * @exception IOException
+	 *                If an I/O error occurs while transferring the file or talking to the server.
+	 */
+	public abstract boolean retrieveFile(String remote, OutputStream local, long offset, long length)
+			throws IOException;
+
 	/**
 	 * Stores a file on the server using the given name and taking input from the
 	 * given InputStream. This method does NOT close the given InputStream. If the
@@ -258,6 +294,70 @@ public abstract class AFTPClient {
 	 */
 	public abstract boolean storeFile(String remote, InputStream local) throws IOException;
 
+	/**
+	 * Stores a local file on the server using the given name. Implementations may send the file without
+	 * copying it through the heap, this implementation streams it.
+	 * 
+	 * @param remote
+	 *            The name to give the remote file.
+	 * @param local
+	 *            The local file.
+	 * @return True if successfully completed, false if not.
+	 * @exception IOException
+	 *                If an I/O error occurs while transferring the file or talking to the server.
+	 */
+	public boolean storeFile(String remote, File local) throws IOException {
+		try (InputStream is = new BufferedInputStream(new FileInputStream(local), 65536)) {
+			return storeFile(remote, is);
+		}
+	}
+
+	/**
+	 * Stores data in a remote file starting at the given offset, the content before (and behind) the
+	 * written data is kept. The file is created if it does not exist. This method does NOT close the
+	 * given InputStream. Only use it with the binary file type.
+	 * 
+	 * @param remote
+	 *            The name of the remote file.
+	 * @param local
+	 *            The local InputStream from which to read the data.
+	 * @param offset
+	 *            Position in the remote file to start writing at.
+	 * @return True if successfully completed, false if not (f.e. the server does not support restarts).
+	 * @exception IOException
+	 *                If an I/O error occurs while transferring the file or talking to the server.
+	 */
+	public abstract boolean storeFile(String remote, InputStream local, long offset) throws IOException;
+
+	/**
+	 * Creates the remote file with the given size, an existing file is replaced. Used to write the parts
+	 * of a file in any order.
+	 * 
+	 * @param remote
+	 *            The name of the remote file.
+	 * @param size
+	 *            Size of the file in bytes.
+	 * @return True if the file has the given size now, false if the server does not support it.
+	 * @exception IOException
+	 *                If an I/O error occurs while sending a command to the server or receiving a reply
+	 *                from the server.
+	 */
+	public abstract boolean allocate(String remote, long size) throws IOException;
+
+	/**
+	 * Sets the last modification time of a remote file (FTP: MFMT).
+	 * 
+	 * @param remote
+	 *            The name of the remote file.
+	 * @param time
+	 *            The time in milliseconds since the epoch.
+	 * @return True if successfully completed, false if not, f.e. because the server does not support it.
+	 * @exception IOException
+	 *                If an I/O error occurs while sending a command to the server or receiving a reply
+	 *                from the server.
+	 */
+	public abstract boolean setModificationTime(String remote, long time) throws IOException;
+
 	/**
 	 * Deletes a file on the FTP server.
 	 * <p>
@@ -293,6 +393,18 @@ public abstract class AFTPClient {
 	 */
 	public abstract String printWorkingDirectory() throws IOException;
 
+	/**
+	 * Returns the size of a remote file.
+	 * 
+	 * @param remote
+	 *            The name of the remote file.
+	 * @return The size in bytes, -1 if the server does not tell.
+	 * @exception IOException
+	 *                If an I/O error occurs while sending a command to the server or receiving a reply
+	 *                from the server.
+	 */
+	public abstract long getSize(String remote) throws IOException;
+
 	public abstract String getPrefix();
 
 	/**
@@ -354,6 +466,32 @@ public abstract class AFTPClient {
 	 */
 	public abstract void setTimeout(int timeout);
 
+	/**
+	 * interval in seconds keepalive messages are sent on the control connection while it is otherwise
+	 * idle, f.e. during a long transfer (FTP: NOOP, SFTP: SSH keepalive), so firewalls and NAT devices
+	 * do not drop it, 0 to disable
+	 * 
+	 * @param seconds
+	 */
+	public abstract void setControlKeepAlive(int seconds);
+
+	/**
+	 * Sets the buffer sizes and socket options used for the following transfers.
+	 * 
+	 * @param settings
+	 */
+	public abstract void setSocketSettings(SocketSettings settings);
+
+	/**
+	 * Compresses the data of the following transfers (FTP: MODE Z), if the server supports it.
+	 * 
+	 * @param compress
+	 * @return true if the transfers are compressed, false if they are not, because it was not asked for
+	 *         or it is not supported
+	 * @throws IOException
+	 */
+	public abstract boolean setCompression(boolean compress) throws IOException;
+
 	/**
 	 * Returns the current data connection mode (one of the
 	 * <code> _DATA_CONNECTION_MODE </code> constants.
@@ -437,4 +575,23 @@ public abstract class AFTPClient {
 	 *                receiving the server reply.
 	 */
 	public abstract boolean sendNoOp() throws IOException;
+
+	/**
+	 * copies up to length bytes (all if length is negative) from in to out
+	 * 
+	 * @return the number of bytes copied
+	 */
+	protected static long copy(InputStream in, OutputStream out, long length) throws IOException {
+		byte[] buffer = new byte[65536];
+		long copied = 0;
+		int len;
+		while (length < 0 || copied < length) {
+			len = in.read(buffer, 0, length < 0 ? buffer.length : (int) Math.min(buffer.length, length - copied));
+			if (len == -1)
+				break;
+			out.write(buffer, 0, len);
+			copied += len;
+		}
+		return copied;
+	}
 }
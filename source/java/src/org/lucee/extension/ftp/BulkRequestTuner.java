@@ -0,0 +1,69 @@
+package org.lucee.extension.ftp;
+
+/**
+ * Finds the number of outstanding requests (pipeline depth) for the SFTP transfers of a session.
+ * Starts at the JSch default and doubles it after every measured transfer, as long as the
+ * throughput improves by more than 10%, then falls back to the best depth. On a link with a high
+ * latency a deeper pipeline fills the bandwidth, on a fast link it only costs memory. As the
+ * conditions change, the search starts over from the current depth every
+ * {@value #REPROBE_INTERVAL} transfers.
+ */
+final class BulkRequestTuner {
+
+	private static final int INITIAL_DEPTH = 16;
+	// smaller transfers are dominated by the round trips to open and close the file
+	private static final long MIN_SAMPLE_SIZE = 1024L * 1024L;
+	private static final double MIN_IMPROVEMENT = 1.1d;
+	private static final int REPROBE_INTERVAL = 50;
+
+	private final int maxDepth;
+	private int depth = INITIAL_DEPTH;
+	private int bestDepth;
+	private double bestThroughput;
+	private boolean settled;
+	private int samples;
+
+	/**
+	 * @param maxDepth
+	 *            the depth is not raised above this, more requests than fit into the window of the
+	 *            channel do not help
+	 */
+	BulkRequestTuner(int maxDepth) {
+		this.maxDepth = Math.max(INITIAL_DEPTH, maxDepth);
+	}
+
+	/**
+	 * @return the depth to use for the next transfer
+	 */
+	synchronized int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * the result of a transfer done with the depth returned by {@link #getDepth()}
+	 */
+	synchronized void measured(int depth, long bytes, long nanos) {
+		if (bytes < MIN_SAMPLE_SIZE || nanos <= 0 || depth != this.depth)
+			return;
+		double throughput = bytes / (double) nanos;
+
+		if (settled) {
+			if (++samples < REPROBE_INTERVAL)
+				return;
+			settled = false;
+			bestThroughput = 0;
+		}
+
+		if (bestThroughput == 0 || throughput > bestThroughput * MIN_IMPROVEMENT) {
+			bestThroughput = throughput;
+			bestDepth = depth;
+			if (depth < maxDepth) {
+				this.depth = Math.min(maxDepth, depth * 2);
+				return;
+			}
+		}
+		this.depth = bestDepth;
+		settled = true;
+		samples = 0;
+	}
+}
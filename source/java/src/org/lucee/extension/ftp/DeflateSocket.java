@@ -0,0 +1,202 @@
+package org.lucee.extension.ftp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.channels.SocketChannel;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Data connection in MODE Z, the data is a zlib (deflate) stream in both directions. Wraps the data
+ * socket, so everything reading or writing a data connection (transfers and listings) is
+ * (de)compressed on the fly without buffering whole files.
+ */
+final class DeflateSocket extends Socket {
+
+	private static final int BUFFER_SIZE = 65536;
+
+	private final Socket socket;
+	private final Inflater inflater = new Inflater();
+	private final Deflater deflater = new Deflater();
+	private InputStream in;
+	private DeflaterOutputStream out;
+
+	DeflateSocket(Socket socket) {
+		this.socket = socket;
+	}
+
+	@Override
+	public synchronized InputStream getInputStream() throws IOException {
+		if (in == null)
+			in = new InflaterInputStream(socket.getInputStream(), inflater, BUFFER_SIZE);
+		return in;
+	}
+
+	@Override
+	public synchronized OutputStream getOutputStream() throws IOException {
+		if (out == null)
+			out = new DeflaterOutputStream(socket.getOutputStream(), deflater, BUFFER_SIZE);
+		return out;
+	}
+
+	/**
+	 * without a channel the data goes through the streams
+	 */
+	@Override
+	public SocketChannel getChannel() {
+		return null;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			// the end of the deflate stream
+			if (out != null)
+				out.close();
+		} finally {
+			socket.close();
+			// not ended by the streams, as they are passed in
+			inflater.end();
+			deflater.end();
+		}
+	}
+
+	@Override
+	public boolean isClosed() {
+		return socket.isClosed();
+	}
+
+	@Override
+	public boolean isConnected() {
+		return socket.isConnected();
+	}
+
+	@Override
+	public boolean isBound() {
+		return socket.isBound();
+	}
+
+	@Override
+	public boolean isInputShutdown() {
+		return socket.isInputShutdown();
+	}
+
+	@Override
+	public boolean isOutputShutdown() {
+		return socket.isOutputShutdown();
+	}
+
+	@Override
+	public void shutdownInput() throws IOException {
+		socket.shutdownInput();
+	}
+
+	@Override
+	public void shutdownOutput() throws IOException {
+		if (out != null)
+			out.finish();
+		socket.shutdownOutput();
+	}
+
+	@Override
+	public InetAddress getInetAddress() {
+		return socket.getInetAddress();
+	}
+
+	@Override
+	public InetAddress getLocalAddress() {
+		return socket.getLocalAddress();
+	}
+
+	@Override
+	public int getPort() {
+		return socket.getPort();
+	}
+
+	@Override
+	public int getLocalPort() {
+		return socket.getLocalPort();
+	}
+
+	@Override
+	public SocketAddress getRemoteSocketAddress() {
+		return socket.getRemoteSocketAddress();
+	}
+
+	@Override
+	public SocketAddress getLocalSocketAddress() {
+		return socket.getLocalSocketAddress();
+	}
+
+	@Override
+	public void setSoTimeout(int timeout) throws SocketException {
+		socket.setSoTimeout(timeout);
+	}
+
+	@Override
+	public int getSoTimeout() throws SocketException {
+		return socket.getSoTimeout();
+	}
+
+	@Override
+	public void setTcpNoDelay(boolean on) throws SocketException {
+		socket.setTcpNoDelay(on);
+	}
+
+	@Override
+	public boolean getTcpNoDelay() throws SocketException {
+		return socket.getTcpNoDelay();
+	}
+
+	@Override
+	public void setKeepAlive(boolean on) throws SocketException {
+		socket.setKeepAlive(on);
+	}
+
+	@Override
+	public boolean getKeepAlive() throws SocketException {
+		return socket.getKeepAlive();
+	}
+
+	@Override
+	public void setSendBufferSize(int size) throws SocketException {
+		socket.setSendBufferSize(size);
+	}
+
+	@Override
+	public int getSendBufferSize() throws SocketException {
+		return socket.getSendBufferSize();
+	}
+
+	@Override
+	public void setReceiveBufferSize(int size) throws SocketException {
+		socket.setReceiveBufferSize(size);
+	}
+
+	@Override
+	public int getReceiveBufferSize() throws SocketException {
+		return socket.getReceiveBufferSize();
+	}
+
+	@Override
+	public void setSoLinger(boolean on, int linger) throws SocketException {
+		socket.setSoLinger(on, linger);
+	}
+
+	@Override
+	public int getSoLinger() throws SocketException {
+		return socket.getSoLinger();
+	}
+
+	@Override
+	public String toString() {
+		return "MODE Z " + socket;
+	}
+}
@@ -0,0 +1,267 @@
+package org.lucee.extension.ftp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import javax.net.ServerSocketFactory;
+import javax.net.SocketFactory;
+
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPCmd;
+import org.apache.commons.net.ftp.FTPReply;
+
+/**
+ * FTPClient with
+ * <ul>
+ * <li>control connection keepalive for transfers commons-net does not cover (stream transfers and
+ * {@link #storeFile(String, FileChannel)})</li>
+ * <li>TCP_NODELAY on the data connections</li>
+ * <li>compressed data connections (MODE Z), commons-net has no deflate transfer mode</li>
+ * <li>uploads from a file channel with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+ * the kernel copies the file to the data connection (sendfile) instead of passing it through the heap</li>
+ * </ul>
+ */
+public class ExtendedFTPClient extends FTPClient {
+
+	// a busy server may answer the NOOPs late, the default (1s) gives up on them too early
+	public static final long KEEP_ALIVE_REPLY_TIMEOUT_MS = 3000;
+
+	// transferred with a single transferTo, between the chunks the keepalive is sent
+	private static final long CHUNK_SIZE = 8L * 1024 * 1024;
+
+	private static final SocketFactory CHANNEL_SOCKET_FACTORY = new ChannelSocketFactory();
+	private static final ServerSocketFactory CHANNEL_SERVER_SOCKET_FACTORY = new ChannelServerSocketFactory();
+
+	private long lastKeepAlive;
+	private int pendingKeepAlives;
+	private boolean dataTcpNoDelay;
+	private boolean deflate;
+
+	/**
+	 * @param dataTcpNoDelay
+	 *            set TCP_NODELAY on the data connections
+	 */
+	public void setDataTcpNoDelay(boolean dataTcpNoDelay) {
+		this.dataTcpNoDelay = dataTcpNoDelay;
+	}
+
+	@Override
+	protected Socket _openDataConnection_(String command, String arg) throws IOException {
+		Socket socket = super._openDataConnection_(command, arg);
+		if (socket != null && dataTcpNoDelay)
+			socket.setTcpNoDelay(true);
+		if (socket != null && deflate)
+			return new DeflateSocket(socket);
+		return socket;
+	}
+
+	/**
+	 * Switches the data connections to MODE Z (deflate) or back to MODE S (stream).
+	 *
+	 * @return true if the data connections are compressed now, false if not, because it was not asked
+	 *         for or the server does not support it
+	 */
+	public boolean setDeflate(boolean deflate) throws IOException {
+		if (deflate == this.deflate)
+			return deflate;
+		if (deflate) {
+			// FEAT lists it as "MODE Z"
+			if (!hasFeature("MODE", "Z") || !FTPReply.isPositiveCompletion(sendCommand("MODE", "Z")))
+				return false;
+		}
+		else if (isConnected() && !FTPReply.isPositiveCompletion(sendCommand("MODE", "S"))) {
+			throw new IOException("failed to switch back to MODE S: " + getReplyString());
+		}
+		this.deflate = deflate;
+		return deflate;
+	}
+
+	public boolean isDeflate() {
+		return deflate;
+	}
+
+	@Override
+	protected void _connectAction_() throws IOException {
+		// a new session starts in MODE S
+		deflate = false;
+		super._connectAction_();
+	}
+
+	/**
+	 * a transfer started, the control connection stays idle until it is completed
+	 */
+	public void transferStarted() {
+		lastKeepAlive = System.currentTimeMillis();
+		pendingKeepAlives = 0;
+	}
+
+	/**
+	 * Called while a transfer runs, sends a NOOP over the control connection once it was idle for the
+	 * control keepalive timeout, so firewalls do not drop it before the transfer is completed. This is
+	 * what retrieveFile/storeFile do, but not the stream methods.
+	 */
+	public void keepAlive() throws IOException {
+		long timeout = getControlKeepAliveTimeoutDuration().toMillis();
+		if (timeout <= 0)
+			return;
+		long now = System.currentTimeMillis();
+		if (now - lastKeepAlive < timeout)
+			return;
+		lastKeepAlive = now;
+		__noop();
+		pendingKeepAlives++;
+	}
+
+	@Override
+	public boolean completePendingCommand() throws IOException {
+		// the replies to the keepalives come before the one of the transfer
+		if (pendingKeepAlives > 0) {
+			int soTimeout = getSoTimeout();
+			try {
+				setSoTimeout((int) getControlKeepAliveReplyTimeoutDuration().toMillis());
+				while (pendingKeepAlives > 0) {
+					__getReplyNoReport();
+					pendingKeepAlives--;
+				}
+			} catch (SocketTimeoutException e) {
+				// the server does not answer NOOPs during a transfer
+			} finally {
+				pendingKeepAlives = 0;
+				setSoTimeout(soTimeout);
+			}
+		}
+		return super.completePendingCommand();
+	}
+
+	/**
+	 * Stores the content of the file channel on the server, the file type has to be binary. Over an
+	 * unencrypted and uncompressed data connection the file is sent with transferTo, otherwise it is
+	 * copied through a stream.
+	 *
+	 * @return True if successfully completed, false if not.
+	 */
+	public boolean storeFile(String remote, FileChannel local) throws IOException {
+		Socket socket;
+		// a data socket created from a SocketChannel, so transferTo can write to it
+		SocketFactory socketFactory = _socketFactory_;
+		ServerSocketFactory serverSocketFactory = _serverSocketFactory_;
+		_socketFactory_ = CHANNEL_SOCKET_FACTORY;
+		_serverSocketFactory_ = CHANNEL_SERVER_SOCKET_FACTORY;
+		try {
+			socket = _openDataConnection_(FTPCmd.STOR, remote);
+		} finally {
+			_socketFactory_ = socketFactory;
+			_serverSocketFactory_ = serverSocketFactory;
+		}
+		if (socket == null)
+			return false;
+
+		try {
+			transferStarted();
+			SocketChannel out = socket.getChannel();
+			long size = local.size();
+			long position = 0;
+			if (out != null) {
+				while (position < size) {
+					position += local.transferTo(position, Math.min(CHUNK_SIZE, size - position), out);
+					keepAlive();
+				}
+			} else {
+				// f.e. a TLS socket or MODE Z
+				InputStream is = Channels.newInputStream(local.position(0));
+				OutputStream os = socket.getOutputStream();
+				byte[] buffer = new byte[65536];
+				int len;
+				while ((len = is.read(buffer)) != -1) {
+					os.write(buffer, 0, len);
+					keepAlive();
+				}
+				os.flush();
+			}
+		} finally {
+			socket.close();
+		}
+		return completePendingCommand();
+	}
+
+	private static final class ChannelSocketFactory extends SocketFactory {
+
+		@Override
+		public Socket createSocket() throws IOException {
+			return SocketChannel.open().socket();
+		}
+
+		@Override
+		public Socket createSocket(String host, int port) throws IOException {
+			Socket socket = createSocket();
+			socket.connect(new InetSocketAddress(host, port));
+			return socket;
+		}
+
+		@Override
+		public Socket createSocket(InetAddress host, int port) throws IOException {
+			Socket socket = createSocket();
+			socket.connect(new InetSocketAddress(host, port));
+			return socket;
+		}
+
+		@Override
+		public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+			Socket socket = createSocket();
+			socket.bind(new InetSocketAddress(localHost, localPort));
+			socket.connect(new InetSocketAddress(host, port));
+			return socket;
+		}
+
+		@Override
+		public Socket createSocket(InetAddress host, int port, InetAddress localHost, int localPort)
+				throws IOException {
+			Socket socket = createSocket();
+			socket.bind(new InetSocketAddress(localHost, localPort));
+			socket.connect(new InetSocketAddress(host, port));
+			return socket;
+		}
+	}
+
+	/**
+	 * for active mode, the accepted sockets of a ServerSocketChannel have a channel as well
+	 */
+	private static final class ChannelServerSocketFactory extends ServerSocketFactory {
+
+		@Override
+		public ServerSocket createServerSocket() throws IOException {
+			return ServerSocketChannel.open().socket();
+		}
+
+		@Override
+		public ServerSocket createServerSocket(int port) throws IOException {
+			ServerSocket socket = createServerSocket();
+			socket.bind(new InetSocketAddress(port));
+			return socket;
+		}
+
+		@Override
+		public ServerSocket createServerSocket(int port, int backlog) throws IOException {
+			ServerSocket socket = createServerSocket();
+			socket.bind(new InetSocketAddress(port), backlog);
+			return socket;
+		}
+
+		@Override
+		public ServerSocket createServerSocket(int port, int backlog, InetAddress bindAddr) throws IOException {
+			ServerSocket socket = createServerSocket();
+			socket.bind(new InetSocketAddress(bindAddr, port), backlog);
+			return socket;
+		}
+	}
+}
@@ -1,11 +1,20 @@
 package org.lucee.extension.ftp;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.InetAddress;
 import java.net.SocketException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
 
 import org.apache.commons.net.PrintCommandListener;
 import org.apache.commons.net.ftp.FTP;
@@ -25,12 +34,15 @@ public class FTPClientImpl extends AFTPClient {
 	private String password;
 	private boolean stopOnError;
 
+	private int fileType = FILE_TYPE_TEXT; // RFC 959 default, also set by commons-net on connect
+	private boolean tcpNoDelay;
+
 	public FTPClientImpl(FTPClient client) {
 		this.client = client;
 	}
 
 	FTPClientImpl() {
-		this.client = new FTPClient();
+		this.client = new ExtendedFTPClient();
 		if (CFMLEngineFactory.getInstance().getCastUtil()
 				.toBooleanValue(Util.getSystemPropOrEnvVar("lucee.debug.ftp", ""), false)) {
 			this.client.addProtocolCommandListener(new PrintCommandListener(new PrintWriter(System.out), true));
@@ -49,7 +61,10 @@ public class FTPClientImpl extends AFTPClient {
 
 	@Override
 	public void connect() throws SocketException, IOException {
+		fileType = FILE_TYPE_TEXT;
 		client.connect(host, port);
+		if (tcpNoDelay)
+			client.setTcpNoDelay(true);
 		if (!Util.isEmpty(username))
 			client.login(username, password);
 	}
@@ -84,6 +99,22 @@ public class FTPClientImpl extends AFTPClient {
 		return client.listFiles(pathname);
 	}
 
+	@Override
+	public FTPFile[] listFilesExact(String pathname) throws IOException {
+		// MLSD is announced as MLST, the times are UTC
+		if (!client.hasFeature("MLST"))
+			return null;
+		FTPFile[] files = client.mlistDir(pathname);
+		// without the directory itself and its parent, they are listed as directories
+		List<FTPFile> list = new ArrayList<>(files.length);
+		for (FTPFile file: files) {
+			String raw = file == null || file.getRawListing() == null ? "" : ";" + file.getRawListing().toLowerCase();
+			if (!raw.contains(";type=cdir;") && !raw.contains(";type=pdir;"))
+				list.add(file);
+		}
+		return list.toArray(new FTPFile[list.size()]);
+	}
+
 	@Override
 	public boolean removeDirectory(String pathname) throws IOException {
 		return client.removeDirectory(pathname);
@@ -91,7 +122,13 @@ public class FTPClientImpl extends AFTPClient {
 
 	@Override
 	public boolean setFileType(int fileType) throws IOException {
-		return client.setFileType(toFTPClientFileType(fileType));
+		// the type stays in effect for the session, no need to send TYPE again
+		if (this.fileType == fileType && client.isConnected())
+			return true;
+		boolean rtn = client.setFileType(toFTPClientFileType(fileType));
+		if (rtn)
+			this.fileType = fileType;
+		return rtn;
 	}
 
 	private int toFTPClientFileType(int fileType) {
@@ -105,11 +142,61 @@ public class FTPClientImpl extends AFTPClient {
 		return client.retrieveFile(remote, local);
 	}
 
+	@Override
+	public boolean retrieveFile(String remote, OutputStream local, long offset, long length) throws IOException {
+		if (offset <= 0 && length < 0)
+			return client.retrieveFile(remote, local);
+		client.setRestartOffset(offset); // REST, reset by the next transfer
+		InputStream is = client.retrieveFileStream(remote);
+		if (is == null)
+			return false;
+		long copied;
+		try {
+			copied = copy(is, local, length);
+		} finally {
+			is.close();
+		}
+		// a transfer stopped before the end of the file is answered with an error (f.e. 426), that is
+		// expected here
+		boolean completed = client.completePendingCommand();
+		return completed || (length >= 0 && copied == length);
+	}
+
 	@Override
 	public boolean storeFile(String remote, InputStream local) throws IOException {
 		return client.storeFile(remote, local);
 	}
 
+	@Override
+	public boolean storeFile(String remote, File local) throws IOException {
+		// binary uploads are sent with transferTo
+		if (fileType != FILE_TYPE_BINARY || !(client instanceof ExtendedFTPClient))
+			return super.storeFile(remote, local);
+		try (FileChannel channel = FileChannel.open(local.toPath(), StandardOpenOption.READ)) {
+			return ((ExtendedFTPClient) client).storeFile(remote, channel);
+		}
+	}
+
+	@Override
+	public boolean storeFile(String remote, InputStream local, long offset) throws IOException {
+		if (offset > 0)
+			client.setRestartOffset(offset); // REST, reset by the next transfer
+		return client.storeFile(remote, local);
+	}
+
+	@Override
+	public boolean allocate(String remote, long size) throws IOException {
+		// FTP has no command to set the size of a file (ALLO only reserves space)
+		return false;
+	}
+
+	@Override
+	public boolean setModificationTime(String remote, long time) throws IOException {
+		SimpleDateFormat format = new SimpleDateFormat("yyyyMMddHHmmss");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return client.setModificationTime(remote, format.format(new Date(time)));
+	}
+
 	@Override
 	public boolean deleteFile(String pathname) throws IOException {
 		return client.deleteFile(pathname);
@@ -120,6 +207,20 @@ public class FTPClientImpl extends AFTPClient {
 		return client.printWorkingDirectory();
 	}
 
+	@Override
+	public long getSize(String remote) throws IOException {
+		String size = client.getSize(remote);
+		if (size != null) {
+			try {
+				return Long.parseLong(size.trim());
+			} catch (NumberFormatException e) {
+				// fall back to MLST
+			}
+		}
+		FTPFile file = client.mlistFile(remote);
+		return file == null ? -1 : file.getSize();
+	}
+
 	@Override
 	public String getPrefix() {
 		return "ftp";
@@ -182,6 +283,39 @@ public class FTPClientImpl extends AFTPClient {
 		client.setDefaultTimeout(timeout);
 	}
 
+	@Override
+	public void setControlKeepAlive(int seconds) {
+		if (client.getControlKeepAliveTimeoutDuration().getSeconds() == Math.max(0, seconds))
+			return;
+		client.setControlKeepAliveTimeout(Duration.ofSeconds(Math.max(0, seconds)));
+		// a busy server may answer the NOOPs late, the default (1s) gives up on them too early
+		client.setControlKeepAliveReplyTimeout(Duration.ofMillis(ExtendedFTPClient.KEEP_ALIVE_REPLY_TIMEOUT_MS));
+	}
+
+	@Override
+	public void setSocketSettings(SocketSettings settings) {
+		if (client.getBufferSize() != settings.getBufferSize())
+			client.setBufferSize(settings.getBufferSize());
+		client.setSendDataSocketBufferSize(settings.getSocketBufferSize());
+		client.setReceieveDataSocketBufferSize(settings.getSocketBufferSize());
+		tcpNoDelay = settings.getTcpNoDelay();
+		if (client instanceof ExtendedFTPClient)
+			((ExtendedFTPClient) client).setDataTcpNoDelay(tcpNoDelay);
+		if (client.isConnected()) {
+			try {
+				client.setTcpNoDelay(tcpNoDelay);
+			} catch (SocketException e) {
+			}
+		}
+	}
+
+	@Override
+	public boolean setCompression(boolean compress) throws IOException {
+		if (client instanceof ExtendedFTPClient)
+			return ((ExtendedFTPClient) client).setDeflate(compress);
+		return false;
+	}
+
 	@Override
 	public void setTimeout(int timeout) {
 		try {
@@ -17,6 +17,9 @@
  */
 package org.lucee.extension.ftp;
 
+import org.lucee.extension.ftp.pool.PoolKey;
+import org.lucee.extension.ftp.pool.PoolSettings;
+
 /**
  * represent a ftp connection
  */
@@ -108,4 +111,24 @@ public interface FTPConnection {
 	public abstract String getKey();
 
 	public abstract String getPassphrase();
-}
\ No newline at end of file
+
+	/**
+	 * @return pool limits and timeouts for this connection
+	 */
+	public abstract PoolSettings getPoolSettings();
+
+	/**
+	 * @return buffer sizes and socket options of the transfers of this connection
+	 */
+	public abstract SocketSettings getSocketSettings();
+
+	/**
+	 * @return algorithms the SFTP sessions of this connection negotiate
+	 */
+	public abstract SSHSettings getSSHSettings();
+
+	/**
+	 * @return key of the connection pool this connection uses
+	 */
+	public abstract PoolKey getPoolKey();
+}
@@ -19,6 +19,9 @@
 
 package org.lucee.extension.ftp;
 
+import org.lucee.extension.ftp.pool.PoolKey;
+import org.lucee.extension.ftp.pool.PoolSettings;
+
 /**
  * Creates a FTP Connection
  */
@@ -41,6 +44,10 @@ public final class FTPConnectionImpl implements FTPConnection {
 	private final String secure;
 	private final String key;
 	private final String passphrase;
+	private final PoolSettings poolSettings;
+	private final SocketSettings socketSettings;
+	private final SSHSettings sshSettings;
+	private final PoolKey poolKey;
 
 	/**
 	 *
@@ -61,11 +68,14 @@ public final class FTPConnectionImpl implements FTPConnection {
 	 * @param secure
 	 * @param key
 	 * @param passphrase
+	 * @param poolSettings
+	 * @param socketSettings
+	 * @param sshSettings
 	 */
 	public FTPConnectionImpl(String name, String server, String username, String password, int port, int timeout,
 			short transferMode, boolean passive, String proxyserver, int proxyport, String proxyuser,
 			String proxypassword, String fingerprint, boolean stopOnError, String secure, String key,
-			String passphrase) {
+			String passphrase, PoolSettings poolSettings, SocketSettings socketSettings, SSHSettings sshSettings) {
 
 		this.name = (name == null) ? null : name.toLowerCase().trim();
 		this.server = server;
@@ -86,6 +96,103 @@ public final class FTPConnectionImpl implements FTPConnection {
 
 		this.key = key;
 		this.passphrase = passphrase;
+		this.poolSettings = (poolSettings == null) ? PoolSettings.NONE : poolSettings;
+		this.socketSettings = (socketSettings == null) ? SocketSettings.NONE : socketSettings;
+		this.sshSettings = (sshSettings == null) ? SSHSettings.NONE : sshSettings;
+		this.poolKey = PoolKey.of(this);
+	}
+
+	/**
+	 * Calls the first constructor and sets the SSH settings to the defaults
+	 *
+	 * @param name
+	 * @param server
+	 * @param username
+	 * @param password
+	 * @param port
+	 * @param timeout
+	 * @param transferMode
+	 * @param passive
+	 * @param proxyserver
+	 * @param proxyport
+	 * @param proxyuser
+	 * @param proxypassword
+	 * @param fingerprint
+	 * @param stopOnError
+	 * @param secure
+	 * @param key
+	 * @param passphrase
+	 * @param poolSettings
+	 * @param socketSettings
+	 */
+	public FTPConnectionImpl(String name, String server, String username, String password, int port, int timeout,
+			short transferMode, boolean passive, String proxyserver, int proxyport, String proxyuser,
+			String proxypassword, String fingerprint, boolean stopOnError, String secure, String key,
+			String passphrase, PoolSettings poolSettings, SocketSettings socketSettings) {
+
+		this(name, server, username, password, port, timeout, transferMode, passive, proxyserver, proxyport, proxyuser,
+				proxypassword, fingerprint, stopOnError, secure, key, passphrase, poolSettings, socketSettings, null);
+	}
+
+	/**
+	 * Calls the first constructor and sets the socket and SSH settings to the defaults
+	 *
+	 * @param name
+	 * @param server
+	 * @param username
+	 * @param password
+	 * @param port
+	 * @param timeout
+	 * @param transferMode
+	 * @param passive
+	 * @param proxyserver
+	 * @param proxyport
+	 * @param proxyuser
+	 * @param proxypassword
+	 * @param fingerprint
+	 * @param stopOnError
+	 * @param secure
+	 * @param key
+	 * @param passphrase
+	 * @param poolSettings
+	 */
+	public FTPConnectionImpl(String name, String server, String username, String password, int port, int timeout,
+			short transferMode, boolean passive, String proxyserver, int proxyport, String proxyuser,
+			String proxypassword, String fingerprint, boolean stopOnError, String secure, String key,
+			String passphrase, PoolSettings poolSettings) {
+
+		this(name, server, username, password, port, timeout, transferMode, passive, proxyserver, proxyport, proxyuser,
+				proxypassword, fingerprint, stopOnError, secure, key, passphrase, poolSettings, null, null);
+	}
+
+	/**
+	 * Calls the first constructor and sets the pool settings to the defaults
+	 *
+	 * @param name
+	 * @param server
+	 * @param username
+	 * @param password
+	 * @param port
+	 * @param timeout
+	 * @param transferMode
+	 * @param passive
+	 * @param proxyserver
+	 * @param proxyport
+	 * @param proxyuser
+	 * @param proxypassword
+	 * @param fingerprint
+	 * @param stopOnError
+	 * @param secure
+	 * @param key
+	 * @param passphrase
+	 */
+	public FTPConnectionImpl(String name, String server, String username, String password, int port, int timeout,
+			short transferMode, boolean passive, String proxyserver, int proxyport, String proxyuser,
+			String proxypassword, String fingerprint, boolean stopOnError, String secure, String key,
+			String passphrase) {
+
+		this(name, server, username, password, port, timeout, transferMode, passive, proxyserver, proxyport, proxyuser,
+				proxypassword, fingerprint, stopOnError, secure, key, passphrase, null, null, null);
 	}
 
 	/**
@@ -112,7 +219,7 @@ public final class FTPConnectionImpl implements FTPConnection {
 			String proxypassword, String fingerprint, boolean stopOnError, String secure) {
 
 		this(name, server, username, password, port, timeout, transferMode, passive, proxyserver, proxyport, proxyuser,
-				proxypassword, fingerprint, stopOnError, secure, null, null);
+				proxypassword, fingerprint, stopOnError, secure, null, null, null, null, null);
 	}
 
 	@Override
@@ -258,4 +365,24 @@ public final class FTPConnectionImpl implements FTPConnection {
 		return passphrase;
 	}
 
-}
\ No newline at end of file
+	@Override
+	public PoolSettings getPoolSettings() {
+		return poolSettings;
+	}
+
+	@Override
+	public SocketSettings getSocketSettings() {
+		return socketSettings;
+	}
+
+	@Override
+	public SSHSettings getSSHSettings() {
+		return sshSettings;
+	}
+
+	@Override
+	public PoolKey getPoolKey() {
+		return poolKey;
+	}
+
+}
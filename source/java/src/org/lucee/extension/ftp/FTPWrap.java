@@ -23,6 +23,7 @@ import java.net.InetAddress;
 
 import org.apache.commons.net.ftp.FTP;
 import org.apache.commons.net.ftp.FTPClient;
+import org.lucee.extension.ftp.util.DNSCache;
 import org.lucee.extension.ftp.util.ReflectionUtil;
 
 /**
@@ -32,7 +33,6 @@ public final class FTPWrap {
 
 	private FTPConnection conn;
 	private AFTPClient client;
-	private InetAddress address;
 	private long lastAccess = 0;
 
 	/**
@@ -57,7 +57,6 @@ public final class FTPWrap {
 	 */
 	public FTPWrap(FTPConnection connection) throws IOException {
 		this.conn = connection;
-		this.address = InetAddress.getByName(connection.getServer());
 		connect();
 	}
 
@@ -100,9 +99,13 @@ public final class FTPWrap {
 	 * @throws IOException
 	 */
 	private void connect() throws IOException {
+		// all addresses of the server (cached), the first one reachable is used
+		client = DNSCache.connect(conn.getServer(), this::connect);
+	}
 
-		client = AFTPClient.getInstance(conn.secure(), address, conn.getPort(), conn.getUsername(), conn.getPassword(),
-				conn.getFingerprint(), conn.getStopOnError());
+	private AFTPClient connect(InetAddress address) throws IOException {
+		AFTPClient client = AFTPClient.getInstance(conn.secure(), address, conn.getPort(), conn.getUsername(),
+				conn.getPassword(), conn.getFingerprint(), conn.getStopOnError());
 
 		if (client instanceof SFTPClientImpl && conn.getKey() != null) {
 			((SFTPClientImpl) client).setSshKey(conn.getKey(), conn.getPassphrase());
@@ -112,9 +115,9 @@ public final class FTPWrap {
 
 		// transfer mode
 		if (conn.getTransferMode() == FTPConstant.TRANSFER_MODE_ASCCI)
-			getClient().setFileType(FTP.ASCII_FILE_TYPE);
+			client.setFileType(FTP.ASCII_FILE_TYPE);
 		else if (conn.getTransferMode() == FTPConstant.TRANSFER_MODE_BINARY)
-			getClient().setFileType(FTP.BINARY_FILE_TYPE);
+			client.setFileType(FTP.BINARY_FILE_TYPE);
 
 		// Connect
 		try {
@@ -124,6 +127,7 @@ public final class FTPWrap {
 		} finally {
 			ReflectionUtil.Proxy_end();
 		}
+		return client;
 	}
 
 	public static void setConnectionSettings(AFTPClient client, FTPConnection conn) {
@@ -133,6 +137,11 @@ public final class FTPWrap {
 		// timeout
 		client.setDefaultTimeout(conn.getTimeout() * 1000);
 
+		// buffers and socket options
+		client.setSocketSettings(conn.getSocketSettings());
+		if (client instanceof SFTPClientImpl)
+			((SFTPClientImpl) client).setSSHSettings(conn.getSSHSettings());
+
 		// passive/active Mode
 		int mode = client.getDataConnectionMode();
 		if (conn.isPassive()) {
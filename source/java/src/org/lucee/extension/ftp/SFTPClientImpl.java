@@ -1,8 +1,10 @@
 package org.lucee.extension.ftp;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.reflect.Method;
 import java.net.InetAddress;
 import java.net.SocketException;
 import java.util.ArrayList;
@@ -12,6 +14,7 @@ import java.util.Locale;
 import java.util.Vector;
 
 import org.apache.commons.net.ftp.FTPFile;
+import org.lucee.extension.ftp.util.LogUtil;
 
 import com.jcraft.jsch.Channel;
 import com.jcraft.jsch.ChannelExec;
@@ -21,6 +24,7 @@ import com.jcraft.jsch.JSchException;
 import com.jcraft.jsch.Session;
 import com.jcraft.jsch.SftpATTRS;
 import com.jcraft.jsch.SftpException;
+import com.jcraft.jsch.SftpProgressMonitor;
 
 import lucee.commons.io.log.Log;
 import lucee.loader.engine.CFMLEngineFactory;
@@ -31,6 +35,7 @@ public final class SFTPClientImpl extends AFTPClient {
 
 	private JSch jsch;
 	private int timeout = 60000;
+	private int keepAlive;
 	private Session session;
 	private ChannelSftp channelSftp;
 	private InetAddress host;
@@ -44,6 +49,14 @@ public final class SFTPClientImpl extends AFTPClient {
 	private boolean positiveCompletion;
 	private String sshKey;
 	private String passphrase;
+	private SSHSettings sshSettings = SSHSettings.NONE;
+	private BulkRequestTuner tuner;
+
+	// JSch defaults of the SFTP channel
+	private static final int DEFAULT_WINDOW_SIZE = 2 * 1024 * 1024;
+	private static final int DEFAULT_PACKET_SIZE = 32 * 1024;
+	// a packet has to fit into the buffer of the session (256KB with header, padding and MAC)
+	private static final int MAX_PACKET_SIZE = 128 * 1024;
 
 	static {
 		// set system property lucee.debug.jsch=true to enable debug output from JSch
@@ -61,27 +74,6 @@ public final class SFTPClientImpl extends AFTPClient {
 				}
 			});
 		}
-		// for backward compatibility to previous version used
-		// appendToJSchConfig("kex", "diffie-hellman-group14-sha1");
-		// appendToJSchConfig("server_host_key", "ssh-rsa", "ssh-dss");
-		appendToJSchConfig("server_host_key", "ssh-rsa", "ssh-dss");
-		appendToJSchConfig("PubkeyAcceptedAlgorithms", "ssh-rsa", "ssh-dss");
-	}
-
-	private static void appendToJSchConfig(String key, String... values) {
-		String value = JSch.getConfig(key);
-		boolean modified = false;
-		for (String val : values) {
-			if (Util.isEmpty(value)) {
-				value = val;
-				modified = true;
-			} else if (("," + value + ",").indexOf("," + val + ",") == -1) {
-				value += "," + val;
-				modified = true;
-			}
-		}
-		if (modified)
-			JSch.setConfig(key, value);
 	}
 
 	SFTPClientImpl() {
@@ -107,6 +99,14 @@ public final class SFTPClientImpl extends AFTPClient {
 		this.passphrase = (passphrase == null) ? "" : passphrase;
 	}
 
+	/**
+	 * algorithms the following sessions negotiate, the legacy host key algorithms (ssh-rsa, ssh-dss) are
+	 * always accepted
+	 */
+	public void setSSHSettings(SSHSettings sshSettings) {
+		this.sshSettings = (sshSettings == null) ? SSHSettings.NONE : sshSettings;
+	}
+
 	@Override
 	public void connect() throws IOException {
 		try {
@@ -120,21 +120,28 @@ public final class SFTPClientImpl extends AFTPClient {
 			if (sshKey != null)
 				jsch.addIdentity(sshKey, passphrase);
 
-			if (timeout > 0)
-				session.setTimeout(timeout);
+			applyTimeouts();
 
 			if (password != null && sshKey == null)
 				config.put("PreferredAuthentications", "password");
 
 			config.put("StrictHostKeyChecking", "no");
+			sshSettings.apply(config);
 
 			session.setConfig(config);
 
 			session.connect();
 
 			Channel channel = session.openChannel("sftp");
+			setChannelSizes(channel);
 			channel.connect();
 			channelSftp = (ChannelSftp) channel;
+			tuner = null;
+			int bulkRequests = sshSettings.getBulkRequests();
+			if (bulkRequests == SSHSettings.BULK_REQUESTS_ADAPTIVE)
+				tuner = new BulkRequestTuner(windowSize() / packetSize());
+			else
+				channelSftp.setBulkRequests(bulkRequests);
 
 			// check fingerprint
 			if (!Util.isEmpty(fingerprint)) {
@@ -150,6 +157,58 @@ public final class SFTPClientImpl extends AFTPClient {
 		}
 	}
 
+	private int windowSize() {
+		int size = sshSettings.getWindowSize();
+		return size > 0 ? Math.max(size, 64 * 1024) : DEFAULT_WINDOW_SIZE;
+	}
+
+	private int packetSize() {
+		int size = sshSettings.getPacketSize();
+		return size > 0 ? Math.max(Math.min(size, MAX_PACKET_SIZE), 1024) : DEFAULT_PACKET_SIZE;
+	}
+
+	/**
+	 * JSch only allows to set the window and packet size of a channel within its package, so this is done
+	 * by reflection, before the channel is opened. If that fails, the channel keeps the defaults.
+	 */
+	private void setChannelSizes(Channel channel) {
+		if (sshSettings.getWindowSize() <= 0 && sshSettings.getPacketSize() <= 0)
+			return;
+		try {
+			if (sshSettings.getWindowSize() > 0) {
+				invoke(channel, "setLocalWindowSizeMax", windowSize());
+				invoke(channel, "setLocalWindowSize", windowSize());
+			}
+			if (sshSettings.getPacketSize() > 0)
+				invoke(channel, "setLocalPacketSize", packetSize());
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			LogUtil.log(Log.LEVEL_WARN, "failed to set the window and packet size of the SFTP channel: " + e);
+		}
+	}
+
+	private static void invoke(Channel channel, String name, int value) throws ReflectiveOperationException {
+		Method method = Channel.class.getDeclaredMethod(name, int.class);
+		method.setAccessible(true);
+		method.invoke(channel, value);
+	}
+
+	/**
+	 * @return the number of outstanding requests the next transfer uses
+	 */
+	private int startTransfer() throws JSchException {
+		if (tuner == null)
+			return channelSftp.getBulkRequests();
+		int depth = tuner.getDepth();
+		if (depth != channelSftp.getBulkRequests())
+			channelSftp.setBulkRequests(depth);
+		return depth;
+	}
+
+	private void endTransfer(int depth, long bytes, long start) {
+		if (tuner != null)
+			tuner.measured(depth, bytes, System.nanoTime() - start);
+	}
+
 	private String fingerprint() {
 		return session.getHostKey().getFingerPrint(jsch);
 	}
@@ -239,6 +298,22 @@ public final class SFTPClientImpl extends AFTPClient {
 		return null;
 	}
 
+	@Override
+	public long getSize(String remote) throws IOException {
+		try {
+			if (channelSftp == null)
+				connect();
+			long size = channelSftp.stat(remote).getSize();
+			handleSucess();
+			return size;
+		} catch (SftpException ioe) {
+			// like SIZE with FTP, a missing file is no error here
+			if (ioe.id != ChannelSftp.SSH_FX_NO_SUCH_FILE)
+				handleFail(ioe, stopOnError);
+		}
+		return -1;
+	}
+
 	@Override
 	public boolean deleteFile(String pathname) throws IOException {
 		try {
@@ -259,10 +334,38 @@ public final class SFTPClientImpl extends AFTPClient {
 		try {
 			if (channelSftp == null)
 				connect();
-			channelSftp.get(remote, local);
+			int depth = startTransfer();
+			long start = System.nanoTime();
+			Counter counter = new Counter();
+			channelSftp.get(remote, local, counter);
+			endTransfer(depth, counter.bytes, start);
 			handleSucess();
 			success = true;
-		} catch (SftpException ioe) {
+		} catch (SftpException | JSchException ioe) {
+			handleFail(ioe, stopOnError);
+		}
+		return success;
+	}
+
+	@Override
+	public boolean retrieveFile(String remote, OutputStream local, long offset, long length) throws IOException {
+		if (offset <= 0 && length < 0)
+			return retrieveFile(remote, local);
+		boolean success = false;
+		try {
+			if (channelSftp == null)
+				connect();
+			int depth = startTransfer();
+			long start = System.nanoTime();
+			InputStream is = channelSftp.get(remote, null, offset);
+			try {
+				endTransfer(depth, copy(is, local, length), start);
+			} finally {
+				is.close();
+			}
+			handleSucess();
+			success = true;
+		} catch (SftpException | JSchException ioe) {
 			handleFail(ioe, stopOnError);
 		}
 		return success;
@@ -273,15 +376,87 @@ public final class SFTPClientImpl extends AFTPClient {
 		try {
 			if (channelSftp == null)
 				connect();
-			channelSftp.put(local, remote); // TODO add progress monitor?
+			int depth = startTransfer();
+			long start = System.nanoTime();
+			Counter counter = new Counter();
+			channelSftp.put(local, remote, counter);
+			endTransfer(depth, counter.bytes, start);
 			handleSucess();
 			return true;
-		} catch (SftpException ioe) {
+		} catch (SftpException | JSchException ioe) {
 			handleFail(ioe, stopOnError);
 		}
 		return false;
 	}
 
+	@Override
+	public boolean storeFile(String remote, InputStream local, long offset) throws IOException {
+		try {
+			if (channelSftp == null)
+				connect();
+			long size = 0;
+			try {
+				size = channelSftp.stat(remote).getSize();
+			} catch (SftpException e) {
+				if (e.id != ChannelSftp.SSH_FX_NO_SUCH_FILE)
+					throw e;
+			}
+			// in RESUME mode the file is not truncated and the offset is relative to the end of the file
+			int depth = startTransfer();
+			long start = System.nanoTime();
+			OutputStream os = channelSftp.put(remote, null, ChannelSftp.RESUME, offset - size);
+			long bytes;
+			try {
+				bytes = copy(local, os, -1);
+			} finally {
+				os.close();
+			}
+			endTransfer(depth, bytes, start);
+			handleSucess();
+			return true;
+		} catch (SftpException | JSchException ioe) {
+			handleFail(ioe, stopOnError);
+		}
+		return false;
+	}
+
+	@Override
+	public boolean setModificationTime(String remote, long time) throws IOException {
+		try {
+			if (channelSftp == null)
+				connect();
+			channelSftp.setMtime(remote, (int) (time / 1000));
+			handleSucess();
+			return true;
+		} catch (SftpException e) {
+			handleFail(e, false);
+		}
+		return false;
+	}
+
+	@Override
+	public boolean allocate(String remote, long size) throws IOException {
+		try {
+			if (channelSftp == null)
+				connect();
+			channelSftp.put(new ByteArrayInputStream(new byte[0]), remote, ChannelSftp.OVERWRITE);
+		} catch (SftpException ioe) {
+			handleFail(ioe, stopOnError);
+			return false;
+		}
+		if (size <= 0)
+			return true;
+		try {
+			SftpATTRS attrs = channelSftp.stat(remote);
+			attrs.setSIZE(size);
+			channelSftp.setStat(remote, attrs);
+			return channelSftp.stat(remote).getSize() == size;
+		} catch (SftpException e) {
+			// the server does not support to set the size
+			return false;
+		}
+	}
+
 	@Override
 	public void sendCommand(String command, String params) throws IOException {
 		try {
@@ -364,6 +539,12 @@ public final class SFTPClientImpl extends AFTPClient {
 		return files.toArray(new FTPFile[files.size()]);
 	}
 
+	@Override
+	public FTPFile[] listFilesExact(String pathname) throws IOException {
+		// the times are seconds since the epoch
+		return listFiles(pathname);
+	}
+
 	private String cleanPath(String pathname) {
 		if (!pathname.endsWith("/"))
 			pathname = pathname + "/";
@@ -418,12 +599,54 @@ public final class SFTPClientImpl extends AFTPClient {
 		this.timeout = timeout;
 		if (session != null) {
 			try {
-				session.setTimeout(timeout);
+				applyTimeouts();
 			} catch (JSchException e) {
 			}
 		}
 	}
 
+	@Override
+	public void setControlKeepAlive(int seconds) {
+		if (keepAlive == Math.max(0, seconds))
+			return;
+		this.keepAlive = Math.max(0, seconds);
+		if (session != null) {
+			try {
+				applyTimeouts();
+			} catch (JSchException e) {
+			}
+		}
+	}
+
+	@Override
+	public void setSocketSettings(SocketSettings settings) {
+		// not used, JSch manages the buffers of its channels itself
+	}
+
+	@Override
+	public boolean setCompression(boolean compress) {
+		// SSH compresses the whole session or nothing, negotiated on connect
+		return false;
+	}
+
+	/**
+	 * With keepalive JSch uses the interval as socket timeout, sends a keepalive every time the server
+	 * was silent that long and gives up after serverAliveCountMax unanswered ones, the count keeps the
+	 * overall timeout about the same as without keepalive.
+	 */
+	private void applyTimeouts() throws JSchException {
+		int interval = keepAlive * 1000;
+		if (interval > 0 && (timeout <= 0 || interval < timeout)) {
+			session.setServerAliveInterval(interval);
+			session.setServerAliveCountMax(timeout > 0 ? Math.max(1, timeout / interval) : Integer.MAX_VALUE);
+		} else {
+			if (session.getServerAliveInterval() > 0)
+				session.setServerAliveInterval(0); // also resets the timeout to infinite
+			if (timeout > 0)
+				session.setTimeout(timeout);
+		}
+	}
+
 	@Override
 	public int getDataConnectionMode() {
 		// not used
@@ -492,4 +715,26 @@ public final class SFTPClientImpl extends AFTPClient {
 			return false;
 		}
 	}
+
+	/**
+	 * counts the bytes of a transfer
+	 */
+	private static final class Counter implements SftpProgressMonitor {
+
+		private long bytes;
+
+		@Override
+		public void init(int op, String src, String dest, long max) {
+		}
+
+		@Override
+		public boolean count(long count) {
+			bytes += count;
+			return true;
+		}
+
+		@Override
+		public void end() {
+		}
+	}
 }
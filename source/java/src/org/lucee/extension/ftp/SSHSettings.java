@@ -0,0 +1,171 @@
+package org.lucee.extension.ftp;
+
+import java.util.Properties;
+
+import org.lucee.extension.ftp.pool.PoolSettings;
+
+import com.jcraft.jsch.JSch;
+
+import lucee.loader.engine.CFMLEngineFactory;
+import lucee.loader.util.Util;
+
+/**
+ * Algorithms an SFTP session negotiates with the server and the flow control of its SFTP channel.
+ * Every value is optional (null / -1), unset values fall back to the node wide default, defined by
+ * system property or environment variable (f.e. "lucee.ftp.ssh.ciphers"), or to the JSch default.
+ * The settings only apply to the sessions of the connection, the global JSch configuration is not
+ * touched.
+ */
+public final class SSHSettings {
+
+	public static final SSHSettings NONE = new SSHSettings(null, null, null, null, -1, -1, -1);
+
+	/**
+	 * bulk requests value that lets the client find the number itself
+	 */
+	public static final int BULK_REQUESTS_ADAPTIVE = 0;
+
+	// zlib@openssh.com only compresses after authentication, "none" connects to servers without zlib
+	private static final String COMPRESSION = "zlib@openssh.com,zlib,none";
+	// for backward compatibility to previous version used
+	private static final String[] LEGACY_HOST_KEYS = { "ssh-rsa", "ssh-dss" };
+
+	private static final boolean DEFAULT_COMPRESSION = CFMLEngineFactory.getInstance().getCastUtil()
+			.toBooleanValue(Util.getSystemPropOrEnvVar("lucee.ftp.ssh.compression", null), false);
+	private static final String DEFAULT_CIPHERS = Util.getSystemPropOrEnvVar("lucee.ftp.ssh.ciphers", null);
+	private static final String DEFAULT_MACS = Util.getSystemPropOrEnvVar("lucee.ftp.ssh.macs", null);
+	private static final String DEFAULT_KEX = Util.getSystemPropOrEnvVar("lucee.ftp.ssh.kex", null);
+	// the JSch default
+	private static final int DEFAULT_BULK_REQUESTS = PoolSettings.getDefault("lucee.ftp.ssh.bulkRequests", 16);
+	// 0 keeps the JSch default (2MB window, 32KB packets)
+	private static final int DEFAULT_WINDOW_SIZE = PoolSettings.getDefault("lucee.ftp.ssh.windowSize", 0);
+	private static final int DEFAULT_PACKET_SIZE = PoolSettings.getDefault("lucee.ftp.ssh.packetSize", 0);
+
+	private final Boolean compression;
+	private final String ciphers;
+	private final String macs;
+	private final String kex;
+	private final int bulkRequests;
+	private final int windowSize;
+	private final int packetSize;
+
+	/**
+	 * @param compression
+	 *            compress the session with zlib, if the server supports it
+	 * @param ciphers
+	 *            comma separated list of ciphers in order of preference (f.e.
+	 *            "aes128-gcm@openssh.com,aes128-ctr"), replaces the default list
+	 * @param macs
+	 *            comma separated list of MACs in order of preference, replaces the default list
+	 * @param kex
+	 *            comma separated list of key exchange algorithms in order of preference, replaces the
+	 *            default list
+	 * @param bulkRequests
+	 *            number of read/write requests a transfer keeps outstanding, {@link #BULK_REQUESTS_ADAPTIVE}
+	 *            to raise it as long as the throughput improves
+	 * @param windowSize
+	 *            size in bytes of the receive window of the SFTP channel, 0 for the JSch default
+	 * @param packetSize
+	 *            maximum size in bytes of the packets the server sends on the SFTP channel, 0 for the JSch
+	 *            default
+	 */
+	public SSHSettings(Boolean compression, String ciphers, String macs, String kex, int bulkRequests, int windowSize,
+			int packetSize) {
+		this.compression = compression;
+		this.ciphers = clean(ciphers);
+		this.macs = clean(macs);
+		this.kex = clean(kex);
+		this.bulkRequests = bulkRequests;
+		this.windowSize = windowSize;
+		this.packetSize = packetSize;
+	}
+
+	public boolean getCompression() {
+		return compression == null ? DEFAULT_COMPRESSION : compression.booleanValue();
+	}
+
+	public String getCiphers() {
+		return ciphers == null ? clean(DEFAULT_CIPHERS) : ciphers;
+	}
+
+	public String getMacs() {
+		return macs == null ? clean(DEFAULT_MACS) : macs;
+	}
+
+	public String getKex() {
+		return kex == null ? clean(DEFAULT_KEX) : kex;
+	}
+
+	public int getBulkRequests() {
+		return bulkRequests < 0 ? DEFAULT_BULK_REQUESTS : bulkRequests;
+	}
+
+	public int getWindowSize() {
+		return windowSize < 0 ? DEFAULT_WINDOW_SIZE : windowSize;
+	}
+
+	public int getPacketSize() {
+		return packetSize < 0 ? DEFAULT_PACKET_SIZE : packetSize;
+	}
+
+	/**
+	 * adds the settings to the configuration of a session
+	 */
+	public void apply(Properties config) {
+		if (getCompression()) {
+			config.put("compression.s2c", COMPRESSION);
+			config.put("compression.c2s", COMPRESSION);
+		}
+		String value = getCiphers();
+		if (value != null) {
+			config.put("cipher.s2c", value);
+			config.put("cipher.c2s", value);
+		}
+		value = getMacs();
+		if (value != null) {
+			config.put("mac.s2c", value);
+			config.put("mac.c2s", value);
+		}
+		value = getKex();
+		if (value != null)
+			config.put("kex", value);
+
+		config.put("server_host_key", append(JSch.getConfig("server_host_key"), LEGACY_HOST_KEYS));
+		config.put("PubkeyAcceptedAlgorithms", append(JSch.getConfig("PubkeyAcceptedAlgorithms"), LEGACY_HOST_KEYS));
+	}
+
+	private static String append(String value, String... values) {
+		for (String val: values) {
+			if (Util.isEmpty(value))
+				value = val;
+			else if (("," + value + ",").indexOf("," + val + ",") == -1)
+				value += "," + val;
+		}
+		return value;
+	}
+
+	/**
+	 * @return the list without blanks, null if empty
+	 */
+	private static String clean(String list) {
+		if (Util.isEmpty(list, true))
+			return null;
+		StringBuilder sb = new StringBuilder();
+		for (String item: list.split(",")) {
+			item = item.trim();
+			if (item.isEmpty())
+				continue;
+			if (sb.length() > 0)
+				sb.append(',');
+			sb.append(item);
+		}
+		return sb.length() == 0 ? null : sb.toString();
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"SSHSettings[compression=%b, ciphers=%s, macs=%s, kex=%s, bulkRequests=%d, windowSize=%d, packetSize=%d]",
+				getCompression(), getCiphers(), getMacs(), getKex(), getBulkRequests(), getWindowSize(), getPacketSize());
+	}
+}
@@ -0,0 +1,56 @@
+package org.lucee.extension.ftp;
+
+import org.lucee.extension.ftp.pool.PoolSettings;
+
+/**
+ * Buffer sizes and socket options of the data transfers of a connection. Every value is optional
+ * (-1 / null), unset values fall back to the node wide default, defined by system property or
+ * environment variable (f.e. "lucee.ftp.bufferSize"), or to the built-in default.
+ */
+public final class SocketSettings {
+
+	public static final SocketSettings NONE = new SocketSettings(-1, -1, null);
+
+	// the commons-net default (1KB) costs a lot of calls per MB
+	private static final int DEFAULT_BUFFER_SIZE = PoolSettings.getDefault("lucee.ftp.bufferSize", 256 * 1024);
+	// 0 leaves it to the OS, setting it disables the auto tuning of the receive window on Linux
+	private static final int DEFAULT_SOCKET_BUFFER_SIZE = PoolSettings.getDefault("lucee.ftp.socketBufferSize", 0);
+	private static final boolean DEFAULT_TCP_NO_DELAY = PoolSettings.getDefault("lucee.ftp.tcpNoDelay", 1) != 0;
+
+	private final int bufferSize;
+	private final int socketBufferSize;
+	private final Boolean tcpNoDelay;
+
+	/**
+	 * @param bufferSize
+	 *            size in bytes of the buffer used to copy the data of a transfer
+	 * @param socketBufferSize
+	 *            send and receive buffer size in bytes (SO_SNDBUF / SO_RCVBUF) of the data connections,
+	 *            0 to use the OS default
+	 * @param tcpNoDelay
+	 *            disable Nagle's algorithm (TCP_NODELAY) on the control and data connections
+	 */
+	public SocketSettings(int bufferSize, int socketBufferSize, Boolean tcpNoDelay) {
+		this.bufferSize = bufferSize;
+		this.socketBufferSize = socketBufferSize;
+		this.tcpNoDelay = tcpNoDelay;
+	}
+
+	public int getBufferSize() {
+		return bufferSize < 1 ? DEFAULT_BUFFER_SIZE : bufferSize;
+	}
+
+	public int getSocketBufferSize() {
+		return socketBufferSize < 0 ? DEFAULT_SOCKET_BUFFER_SIZE : socketBufferSize;
+	}
+
+	public boolean getTcpNoDelay() {
+		return tcpNoDelay == null ? DEFAULT_TCP_NO_DELAY : tcpNoDelay.booleanValue();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("SocketSettings[bufferSize=%d, socketBufferSize=%d, tcpNoDelay=%b]", getBufferSize(),
+				getSocketBufferSize(), getTcpNoDelay());
+	}
+}
@@ -0,0 +1,90 @@
+package org.lucee.extension.ftp.function;
+
+import java.util.Map;
+
+import org.lucee.extension.ftp.pool.FTPConnectionPool;
+import org.lucee.extension.ftp.pool.FTPConnectionPool.PoolStats;
+import org.lucee.extension.ftp.pool.PoolMetrics;
+
+import lucee.loader.engine.CFMLEngine;
+import lucee.loader.engine.CFMLEngineFactory;
+import lucee.runtime.PageContext;
+import lucee.runtime.exp.PageException;
+import lucee.runtime.ext.function.BIF;
+import lucee.runtime.type.Struct;
+import lucee.runtime.util.Creation;
+
+/**
+ * returns the statistics and counters of the FTP connection pools
+ */
+public final class FTPPoolMetrics extends BIF {
+
+	private static final long serialVersionUID = 3525329364946484405L;
+
+	private static final String[] BUCKET_LABELS = { "<1ms", "<10ms", "<100ms", "<1s", "<10s", ">=10s" };
+
+	@Override
+	public Object invoke(PageContext pc, Object[] args) throws PageException {
+		CFMLEngine eng = CFMLEngineFactory.getInstance();
+		Creation creator = eng.getCreationUtil();
+		FTPConnectionPool pool = FTPConnectionPool.getInstance();
+
+		// single named connection
+		if (args.length > 0 && args[0] != null) {
+			String name = eng.getCastUtil().toString(args[0]);
+			PoolStats stats = pool.getPoolStats(name);
+			if (stats == null)
+				throw eng.getExceptionUtil()
+						.createApplicationException("there is no FTP connection pool with name [" + name + "]");
+			return toStruct(creator, stats);
+		}
+
+		Struct sct = creator.createStruct(Struct.TYPE_LINKED);
+		for (Map.Entry<String, PoolStats> e: pool.getAllPoolStats().entrySet()) {
+			sct.setEL(e.getKey(), toStruct(creator, e.getValue()));
+		}
+		return sct;
+	}
+
+	private static Struct toStruct(Creation creator, PoolStats stats) {
+		PoolMetrics metrics = stats.getMetrics();
+		Struct sct = creator.createStruct(Struct.TYPE_LINKED);
+		sct.setEL("active", stats.getNumActive());
+		sct.setEL("idle", stats.getNumIdle());
+		sct.setEL("waiters", stats.getNumWaiters());
+		sct.setEL("maxTotal", stats.getMaxTotal());
+		sct.setEL("maxIdle", stats.getMaxIdle());
+		sct.setEL("minIdle", stats.getMinIdle());
+		sct.setEL("creates", metrics.getCreates());
+		sct.setEL("destroys", metrics.getDestroys());
+		sct.setEL("validationFailures", metrics.getValidationFailures());
+
+		// borrow wait
+		Struct borrow = creator.createStruct(Struct.TYPE_LINKED);
+		borrow.setEL("count", metrics.getBorrows());
+		borrow.setEL("totalMs", metrics.getBorrowWaitTotalMs());
+		borrow.setEL("maxMs", metrics.getBorrowWaitMaxMs());
+		Struct histogram = creator.createStruct(Struct.TYPE_LINKED);
+		long[] buckets = metrics.getBorrowWaitHistogram();
+		for (int i = 0; i < buckets.length; i++) {
+			histogram.setEL(BUCKET_LABELS[i], buckets[i]);
+		}
+		borrow.setEL("histogram", histogram);
+		sct.setEL("borrowWait", borrow);
+
+		// actions
+		Struct actions = creator.createStruct(Struct.TYPE_LINKED);
+		for (Map.Entry<String, PoolMetrics.ActionMetrics> e: metrics.getActions().entrySet()) {
+			PoolMetrics.ActionMetrics am = e.getValue();
+			Struct action = creator.createStruct(Struct.TYPE_LINKED);
+			action.setEL("count", am.getCount());
+			action.setEL("errors", am.getErrors());
+			action.setEL("totalMs", am.getTotalMs());
+			action.setEL("maxMs", am.getMaxMs());
+			action.setEL("bytes", am.getBytes());
+			actions.setEL(e.getKey(), action);
+		}
+		sct.setEL("actions", actions);
+		return sct;
+	}
+}
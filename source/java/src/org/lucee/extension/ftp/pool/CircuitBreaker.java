@@ -0,0 +1,69 @@
+package org.lucee.extension.ftp.pool;
+
+import java.io.IOException;
+
+/**
+ * Circuit breaker of a single server (host and port), shared by all pools connecting to it.
+ *
+ * After "lucee.ftp.circuitBreaker.failures" consecutive failed connects or logins the circuit opens
+ * and every borrow fails immediately, instead of waiting for maxWait and the connect timeout. After
+ * "lucee.ftp.circuitBreaker.openTime" seconds a single borrow is let through as probe (half open),
+ * if it succeeds the circuit closes again, otherwise it stays open for another period.
+ */
+final class CircuitBreaker {
+
+	private static final int FAILURE_THRESHOLD = PoolSettings.getDefault("lucee.ftp.circuitBreaker.failures", 5);
+	private static final long OPEN_TIME_MS = PoolSettings.getDefault("lucee.ftp.circuitBreaker.openTime", 30) * 1000L;
+
+	private final String server;
+	private int failures;
+	private long openUntil;
+	private boolean probing;
+
+	CircuitBreaker(String server) {
+		this.server = server;
+	}
+
+	/**
+	 * @throws IOException
+	 *             if the circuit is open, or half open with the probe already running
+	 */
+	synchronized void check() throws IOException {
+		if (FAILURE_THRESHOLD < 1 || failures < FAILURE_THRESHOLD)
+			return;
+		long now = System.currentTimeMillis();
+		if (now < openUntil || probing) {
+			throw new IOException("connections to [" + server + "] are suspended for "
+					+ Math.max(1, (openUntil - now) / 1000) + " seconds after " + failures
+					+ " failed attempts to connect in a row");
+		}
+		// half open, this caller is the probe
+		probing = true;
+	}
+
+	/**
+	 * a borrow ended without a connect or login failure (f.e. it timed out waiting for the pool), if it
+	 * was the probe, the next borrow probes again
+	 */
+	synchronized void release() {
+		probing = false;
+	}
+
+	/**
+	 * a connection was established or validated
+	 */
+	synchronized void recordSuccess() {
+		failures = 0;
+		probing = false;
+	}
+
+	/**
+	 * a connect or login failed
+	 */
+	synchronized void recordFailure() {
+		failures++;
+		probing = false;
+		if (FAILURE_THRESHOLD > 0 && failures >= FAILURE_THRESHOLD)
+			openUntil = System.currentTimeMillis() + OPEN_TIME_MS;
+	}
+}
@@ -0,0 +1,105 @@
+package org.lucee.extension.ftp.pool;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Limits the number of open connections across all pools, for the whole node
+ * ("lucee.ftp.pool.globalMaxTotal") and per server ("lucee.ftp.pool.hostMaxTotal"). Every pooled
+ * connection holds a permit of both budgets until it is closed. Waiters are served in order (fair
+ * semaphores), so a pool with many waiting threads cannot starve the others.
+ */
+final class ConnectionBudget {
+
+	private static final ConnectionBudget INSTANCE = new ConnectionBudget(
+			PoolSettings.getDefault("lucee.ftp.pool.globalMaxTotal", 200),
+			PoolSettings.getDefault("lucee.ftp.pool.hostMaxTotal", 50));
+
+	private final int globalMaxTotal;
+	private final int hostMaxTotal;
+	private final Semaphore global;
+	private final Map<String, Semaphore> hosts = new ConcurrentHashMap<>();
+
+	/**
+	 * @param globalMaxTotal
+	 *            max number of connections of the node, less than 1 for unlimited
+	 * @param hostMaxTotal
+	 *            max number of connections to a single server, less than 1 for unlimited
+	 */
+	private ConnectionBudget(int globalMaxTotal, int hostMaxTotal) {
+		this.globalMaxTotal = globalMaxTotal < 1 ? Integer.MAX_VALUE : globalMaxTotal;
+		this.hostMaxTotal = hostMaxTotal < 1 ? Integer.MAX_VALUE : hostMaxTotal;
+		this.global = new Semaphore(this.globalMaxTotal, true);
+	}
+
+	static ConnectionBudget getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Reserve a connection to the given server. If a budget is used up, the idle connections holding it
+	 * are closed first (see {@link FTPConnectionPool#clearIdle(String)}), then the call waits for a free
+	 * permit up to maxWaitMs.
+	 *
+	 * @return the permit, to be released when the connection is closed
+	 * @throws IOException
+	 *             if no permit became available in time
+	 */
+	Permit acquire(String host, long maxWaitMs) throws IOException {
+		String hostKey = host == null ? "" : host.toLowerCase();
+		Semaphore hostBudget = hosts.computeIfAbsent(hostKey, k -> new Semaphore(hostMaxTotal, true));
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxWaitMs));
+
+		try {
+			// always host before global, so two threads never hold one permit each and wait for the other
+			if (!acquire(hostBudget, deadline, hostKey)) {
+				throw new IOException("no connection to [" + host + "] available, all " + hostMaxTotal
+						+ " connections allowed for this server (lucee.ftp.pool.hostMaxTotal) are in use");
+			}
+			if (!acquire(global, deadline, null)) {
+				hostBudget.release();
+				throw new IOException("no FTP connection available, all " + globalMaxTotal
+						+ " connections allowed (lucee.ftp.pool.globalMaxTotal) are in use");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while waiting for a connection to [" + host + "]");
+		}
+		return new Permit(hostBudget, global);
+	}
+
+	private static boolean acquire(Semaphore budget, long deadline, String host) throws InterruptedException {
+		// a timed tryAcquire respects the queue of a fair semaphore, the untimed one would barge in
+		if (budget.tryAcquire(0, TimeUnit.NANOSECONDS))
+			return true;
+		FTPConnectionPool.getInstance().clearIdle(host);
+		return budget.tryAcquire(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Permit of a single connection, releasing it more than once has no effect
+	 */
+	static final class Permit {
+
+		private final Semaphore host;
+		private final Semaphore global;
+		private final AtomicBoolean released = new AtomicBoolean();
+
+		private Permit(Semaphore host, Semaphore global) {
+			this.host = host;
+			this.global = global;
+		}
+
+		void release() {
+			if (released.compareAndSet(false, true)) {
+				global.release();
+				host.release();
+			}
+		}
+	}
+}
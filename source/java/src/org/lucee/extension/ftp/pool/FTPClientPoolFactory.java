@@ -2,43 +2,172 @@ package org.lucee.extension.ftp.pool;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.ObjectName;
 
-import org.apache.commons.net.ftp.FTP;
 import org.apache.commons.pool2.BasePooledObjectFactory;
+import org.apache.commons.pool2.DestroyMode;
 import org.apache.commons.pool2.PooledObject;
 import org.apache.commons.pool2.impl.DefaultPooledObject;
 import org.lucee.extension.ftp.AFTPClient;
 import org.lucee.extension.ftp.FTPConnection;
-import org.lucee.extension.ftp.FTPConstant;
 import org.lucee.extension.ftp.FTPWrap;
 import org.lucee.extension.ftp.SFTPClientImpl;
+import org.lucee.extension.ftp.util.DNSCache;
+import org.lucee.extension.ftp.util.LogUtil;
 import org.lucee.extension.ftp.util.ReflectionUtil;
 
+import lucee.commons.io.log.Log;
+
 /**
  * Factory for creating and managing pooled FTP clients
  */
 public class FTPClientPoolFactory extends BasePooledObjectFactory<PooledFTPClient> {
 
+	private static final int MAX_CONCURRENT_CREATES = Math.max(1,
+			PoolSettings.getDefault("lucee.ftp.pool.maxConcurrentCreates", 4));
+	private static final double LIVE_TIMEOUT_JITTER = Math.min(100,
+			Math.max(0, PoolSettings.getDefault("lucee.ftp.pool.liveTimeoutJitter", 20))) / 100d;
+
 	private final FTPConnection connection;
-	private final InetAddress address;
 	private final long maxIdleTimeMs;
-	private final long maxLiveTimeMs;
+	private volatile long maxLiveTimeMs;
+	private volatile long validationWindowMs;
+	private volatile long maxWaitMs;
+	private final PoolMetrics metrics = new PoolMetrics();
+	private volatile long flushTime;
+	private volatile long lastUsed = System.currentTimeMillis();
+	private final Semaphore creating = new Semaphore(MAX_CONCURRENT_CREATES, true);
+	private final CircuitBreaker breaker;
+	private ObjectName objectName;
 
-	public FTPClientPoolFactory(FTPConnection connection, long maxIdleTimeMs, long maxLiveTimeMs)
-			throws RuntimeException {
+	public FTPClientPoolFactory(FTPConnection connection, long maxIdleTimeMs, long maxLiveTimeMs,
+			long validationWindowMs, long maxWaitMs) {
 		this.connection = connection;
 		this.maxIdleTimeMs = maxIdleTimeMs;
 		this.maxLiveTimeMs = maxLiveTimeMs;
+		this.validationWindowMs = validationWindowMs;
+		this.maxWaitMs = maxWaitMs;
+		this.breaker = FTPConnectionPool.getInstance().getCircuitBreaker(connection);
+	}
 
-		try {
-			this.address = InetAddress.getByName(connection.getServer());
-		} catch (IOException e) {
-			throw new RuntimeException("Failed to resolve server address: " + connection.getServer(), e);
-		}
+	/**
+	 * @return the connection all clients of this factory are created with
+	 */
+	public FTPConnection getConnection() {
+		return connection;
+	}
+
+	/**
+	 * the pool was used, see {@link #getLastUsed()}
+	 */
+	void touch() {
+		lastUsed = System.currentTimeMillis();
+	}
+
+	/**
+	 * @return last time a client of the pool was borrowed or returned
+	 */
+	long getLastUsed() {
+		return lastUsed;
+	}
+
+	CircuitBreaker getCircuitBreaker() {
+		return breaker;
+	}
+
+	public PoolMetrics getMetrics() {
+		return metrics;
+	}
+
+	ObjectName getObjectName() {
+		return objectName;
+	}
+
+	void setObjectName(ObjectName objectName) {
+		this.objectName = objectName;
+	}
+
+	/**
+	 * mark all connections created so far as outdated, they are replaced the next time they are
+	 * validated or returned
+	 */
+	void flush() {
+		flushTime = System.currentTimeMillis();
+	}
+
+	boolean isFlushed(PooledFTPClient pooledClient) {
+		return pooledClient.getCreationTime() <= flushTime;
+	}
+
+	/**
+	 * max time a connection is used before it is replaced, 0 for unlimited
+	 */
+	public void setMaxLiveTimeMs(long maxLiveTimeMs) {
+		this.maxLiveTimeMs = maxLiveTimeMs;
+	}
+
+	/**
+	 * a connection that completed a command within this time is handed out without a NOOP round trip
+	 */
+	public void setValidationWindowMs(long validationWindowMs) {
+		this.validationWindowMs = validationWindowMs;
+	}
+
+	/**
+	 * max time create waits for a free slot of the global and the per server connection budget
+	 */
+	public void setMaxWaitMs(long maxWaitMs) {
+		this.maxWaitMs = maxWaitMs;
 	}
 
 	@Override
 	public PooledFTPClient create() throws Exception {
+		// limit the logins running at the same time, so connections expiring together do not flood the server
+		if (!creating.tryAcquire(maxWaitMs, TimeUnit.MILLISECONDS)) {
+			throw new IOException("no connection to [" + connection.getServer() + "] available, already "
+					+ MAX_CONCURRENT_CREATES + " connections are being opened (lucee.ftp.pool.maxConcurrentCreates)");
+		}
+		try {
+			ConnectionBudget.Permit permit = ConnectionBudget.getInstance().acquire(connection.getServer(),
+					maxWaitMs);
+			try {
+				PooledFTPClient pooledClient;
+				try {
+					// the server is resolved with every connect (cached), so a changed DNS record is picked up
+					pooledClient = DNSCache.connect(connection.getServer(), this::_create);
+				} catch (Exception e) {
+					breaker.recordFailure();
+					throw e;
+				}
+				pooledClient.setPermit(permit);
+				pooledClient.setMetrics(metrics);
+				pooledClient.setLifetimeFactor(lifetimeFactor());
+				metrics.recordCreate();
+				return pooledClient;
+			} catch (Exception e) {
+				permit.release();
+				throw e;
+			}
+		} finally {
+			creating.release();
+		}
+	}
+
+	/**
+	 * every connection gets a slightly shorter max live time (up to lucee.ftp.pool.liveTimeoutJitter
+	 * percent), so connections opened together do not expire together
+	 */
+	private static double lifetimeFactor() {
+		return 1d - ThreadLocalRandom.current().nextDouble() * LIVE_TIMEOUT_JITTER;
+	}
+
+	private PooledFTPClient _create(InetAddress address) throws IOException {
 		AFTPClient client = AFTPClient.getInstance(connection.secure(), address, connection.getPort(),
 				connection.getUsername(), connection.getPassword(), connection.getFingerprint(),
 				connection.getStopOnError());
@@ -51,13 +180,6 @@ public class FTPClientPoolFactory extends BasePooledObjectFactory<PooledFTPClien
 		// Apply connection settings
 		FTPWrap.setConnectionSettings(client, connection);
 
-		// Set transfer mode
-		if (connection.getTransferMode() == FTPConstant.TRANSFER_MODE_ASCCI) {
-			client.setFileType(FTP.ASCII_FILE_TYPE);
-		} else if (connection.getTransferMode() == FTPConstant.TRANSFER_MODE_BINARY) {
-			client.setFileType(FTP.BINARY_FILE_TYPE);
-		}
-
 		// Connect with proxy support
 		try {
 			ReflectionUtil.Proxy_start(connection.getProxyServer(), connection.getProxyPort(),
@@ -67,7 +189,10 @@ public class FTPClientPoolFactory extends BasePooledObjectFactory<PooledFTPClien
 			ReflectionUtil.Proxy_end();
 		}
 
-		return new PooledFTPClient(client, connection);
+		// Set transfer mode, this needs a live session
+		PooledFTPClient pooledClient = new PooledFTPClient(client, connection);
+		pooledClient.setTransferMode(connection.getTransferMode());
+		return pooledClient;
 	}
 
 	@Override
@@ -75,16 +200,37 @@ public class FTPClientPoolFactory extends BasePooledObjectFactory<PooledFTPClien
 		return new DefaultPooledObject<>(client);
 	}
 
+	@Override
+	public void destroyObject(PooledObject<PooledFTPClient> p, DestroyMode mode) throws Exception {
+		if (mode == DestroyMode.ABANDONED) {
+			PooledFTPClient pooledClient = p.getObject();
+			String site = pooledClient == null ? null : pooledClient.getBorrowSite();
+			LogUtil.log(Log.LEVEL_WARN, "reclaimed FTP connection to [" + connection.getServer() + "] borrowed by ["
+					+ (site == null ? "unknown" : site) + "], it was not used for "
+					+ Duration.between(p.getLastUsedInstant(), Instant.now()).toMillis()
+					+ "ms and never returned to the pool");
+		}
+		destroyObject(p);
+	}
+
 	@Override
 	public void destroyObject(PooledObject<PooledFTPClient> p) throws Exception {
 		PooledFTPClient pooledClient = p.getObject();
 		if (pooledClient != null) {
+			metrics.recordDestroy();
 			pooledClient.close();
 		}
 	}
 
 	@Override
 	public boolean validateObject(PooledObject<PooledFTPClient> p) {
+		if (_validateObject(p))
+			return true;
+		metrics.recordValidationFailure();
+		return false;
+	}
+
+	private boolean _validateObject(PooledObject<PooledFTPClient> p) {
 		PooledFTPClient pooledClient = p.getObject();
 		if (pooledClient == null) {
 			return false;
@@ -95,15 +241,33 @@ public class FTPClientPoolFactory extends BasePooledObjectFactory<PooledFTPClien
 			return false;
 		}
 
-		// Check if connection has exceeded max live time
+		// connections created before a flush are replaced
+		if (isFlushed(pooledClient)) {
+			return false;
+		}
+
+		// Check if connection has exceeded max live time (jittered per connection)
 		long now = System.currentTimeMillis();
-		if (maxLiveTimeMs > 0 && (now - pooledClient.getCreationTime()) > maxLiveTimeMs) {
+		if (maxLiveTimeMs > 0
+				&& (now - pooledClient.getCreationTime()) > maxLiveTimeMs * pooledClient.getLifetimeFactor()) {
 			return false;
 		}
 
+		// recently used successfully, we save the round trip, if the connection turns out to be dead
+		// nevertheless, the borrower replaces it with a fresh one (see isUnverified)
+		if (validationWindowMs > 0 && (now - pooledClient.getLastSuccessTime()) < validationWindowMs) {
+			pooledClient.setUnverified(pooledClient.isUsed());
+			return true;
+		}
+
 		// Try a NOOP command to verify connection is alive
+		pooledClient.setUnverified(false);
 		try {
-			return client.sendNoOp();
+			if (client.sendNoOp()) {
+				pooledClient.markSuccess();
+				return true;
+			}
+			return false;
 		} catch (Exception e) {
 			return false;
 		}
@@ -1,16 +1,32 @@
 package org.lucee.extension.ftp.pool;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.time.Duration;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.pool2.impl.AbandonedConfig;
 import org.apache.commons.pool2.impl.GenericObjectPool;
 import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
 import org.lucee.extension.ftp.FTPConnection;
 import org.lucee.extension.ftp.FTPWrap;
+import org.lucee.extension.ftp.util.LogUtil;
+
+import lucee.commons.io.log.Log;
 
 import lucee.loader.engine.CFMLEngineFactory;
+import lucee.runtime.PageContext;
 import lucee.runtime.exp.PageException;
 
 /**
@@ -18,30 +34,61 @@ import lucee.runtime.exp.PageException;
  */
 public final class FTPConnectionPool {
 
+	// borrowed connections not used for this time are reclaimed, 0 to disable
+	private static final long ABANDONED_TIMEOUT_MS = PoolSettings.getDefault("lucee.ftp.pool.abandonedTimeout", 600)
+			* 1000L;
+
+	// unnamed pools not used for this time are closed and removed, 0 to keep them
+	private static final long UNUSED_TIMEOUT_MS = PoolSettings.getDefault("lucee.ftp.pool.unusedTimeout", 600) * 1000L;
+
+	// interval of the metrics snapshots written to the log, 0 to disable
+	private static final long METRICS_LOG_INTERVAL_MS = PoolSettings.getDefault("lucee.ftp.pool.metricsLogInterval", 300)
+			* 1000L;
+
+	// register a MBean per pool, see FTPPoolControl
+	private static final boolean JMX_ENABLED = PoolSettings.getDefault("lucee.ftp.pool.jmx", 1) != 0;
+	private static final String JMX_DOMAIN = "org.lucee.extension.ftp";
+
+	// after the settings above, they are not constants and the constructor reads them
 	private static final FTPConnectionPool INSTANCE = new FTPConnectionPool();
 
 	// Map of connection name/key to object pool
-	private final Map<String, GenericObjectPool<PooledFTPClient>> pools = new ConcurrentHashMap<>();
+	private final Map<PoolKey, GenericObjectPool<PooledFTPClient>> pools = new ConcurrentHashMap<>();
+
+	// circuit breaker per server:port, shared by all pools of the server
+	private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
 
 	// Default pool configuration
 	private final GenericObjectPoolConfig<PooledFTPClient> defaultPoolConfig;
 
-	// Default timeouts (can be overridden per connection)
-	private static final long DEFAULT_MAX_IDLE_TIME_MS = 1 * 60 * 1000; // 1 minute
-	private static final long DEFAULT_MAX_LIVE_TIME_MS = 5 * 60 * 1000; // 5 minutes
+	// opens the minIdle connections of warm pools in the background
+	private final ExecutorService warmUpExecutor = Executors.newCachedThreadPool(r -> {
+		Thread t = new Thread(r, "ftp-pool-warm-up");
+		t.setDaemon(true);
+		return t;
+	});
+
+	// clients pinned to a request
+	private final RequestAffinity affinity = new RequestAffinity();
+
+	// removes the unused pools, see removeUnused
+	private final ScheduledExecutorService cleaner = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "ftp-pool-cleaner");
+		t.setDaemon(true);
+		return t;
+	});
+
+	// time of the next metrics snapshot, 0 until the first borrow
+	private final AtomicLong nextSnapshot = new AtomicLong();
 
 	private FTPConnectionPool() {
 		defaultPoolConfig = new GenericObjectPoolConfig<>();
 
-		// Pool sizing
-		defaultPoolConfig.setMaxTotal(50); // Max connections across all pools
-		defaultPoolConfig.setMaxIdle(10); // Max idle connections per pool
-		defaultPoolConfig.setMinIdle(0); // Min idle connections per pool
+		// Pool sizing and timeouts (can be overridden per connection)
+		PoolSettings.NONE.configure(defaultPoolConfig);
 
 		// Eviction policy for idle connections
 		defaultPoolConfig.setTimeBetweenEvictionRuns(Duration.ofSeconds(30));
-		defaultPoolConfig.setMinEvictableIdleTime(Duration.ofMillis(DEFAULT_MAX_IDLE_TIME_MS));
-		defaultPoolConfig.setSoftMinEvictableIdleTime(Duration.ofMillis(DEFAULT_MAX_IDLE_TIME_MS));
 		defaultPoolConfig.setNumTestsPerEvictionRun(3);
 
 		// Connection validation
@@ -51,10 +98,16 @@ public final class FTPConnectionPool {
 
 		// Blocking behavior
 		defaultPoolConfig.setBlockWhenExhausted(true);
-		defaultPoolConfig.setMaxWait(Duration.ofSeconds(10));
 
-		// Enable JMX monitoring
-		defaultPoolConfig.setJmxEnabled(true);
+		cleaner.scheduleWithFixedDelay(() -> affinity.releaseEnded(this), 1, 1, TimeUnit.SECONDS);
+		if (UNUSED_TIMEOUT_MS > 0) {
+			long interval = Math.max(10000L, Math.min(60000L, UNUSED_TIMEOUT_MS));
+			cleaner.scheduleWithFixedDelay(this::removeUnused, interval, interval, TimeUnit.MILLISECONDS);
+		}
+
+		// the pools are registered with our own MBean (see FTPPoolControl), it adds operations the
+		// commons-pool MBean has not
+		defaultPoolConfig.setJmxEnabled(false);
 	}
 
 	public static FTPConnectionPool getInstance() {
@@ -65,23 +118,66 @@ public final class FTPConnectionPool {
 	 * Get a pooled FTP client for the given connection
 	 */
 	public PooledFTPClient borrowClient(FTPConnection conn) throws IOException, PageException {
-		String poolKey = getPoolKey(conn);
+		PoolKey poolKey = conn.getPoolKey();
 		GenericObjectPool<PooledFTPClient> pool = getOrCreatePool(poolKey, conn);
 
+		// a named connection opened again with other login data replaces the existing pool, the clients
+		// still in use are closed when they are returned
+		if (conn.hasName() && conn.hasLoginData()
+				&& !getConnection(pool).getPoolKey().sameCredentials(poolKey)) {
+			if (pools.remove(poolKey, pool))
+				closePool(pool);
+			pool = getOrCreatePool(poolKey, conn);
+		}
+
+		// limits defined with this call overrule the ones the pool was created with
+		PoolSettings settings = conn.getPoolSettings();
+		if (settings.isDefined()) {
+			int minIdle = pool.getMinIdle();
+			settings.apply(pool, (FTPClientPoolFactory) pool.getFactory());
+			if (pool.getMinIdle() > minIdle)
+				warmUp(pool);
+		}
+
+		// fail fast while the server is known to be down
+		CircuitBreaker breaker = ((FTPClientPoolFactory) pool.getFactory()).getCircuitBreaker();
+		breaker.check();
+
 		try {
-			PooledFTPClient pooledClient = pool.borrowObject();
+			long start = System.currentTimeMillis();
+			PooledFTPClient pooledClient;
+			try {
+				((FTPClientPoolFactory) pool.getFactory()).touch();
+				pooledClient = pool.borrowObject();
+			} catch (IllegalStateException ise) {
+				// the pool was removed as unused in the meantime
+				if (!pool.isClosed())
+					throw ise;
+				pool = getOrCreatePool(poolKey, conn);
+				((FTPClientPoolFactory) pool.getFactory()).touch();
+				pooledClient = pool.borrowObject();
+			}
+			breaker.recordSuccess();
+			pooledClient.setBorrowSite(LogUtil.currentTemplate());
+			((FTPClientPoolFactory) pool.getFactory()).getMetrics().recordBorrow(System.currentTimeMillis() - start);
+			logSnapshot();
 
-			// Update connection settings in case they changed
-			FTPWrap.setConnectionSettings(pooledClient.getClient(), conn);
+			try {
+				// Update connection settings in case they changed
+				FTPWrap.setConnectionSettings(pooledClient.getClient(), conn);
 
-			// Check if transfer mode changed and reconnect if needed
-			if (pooledClient.getConnection().getTransferMode() != conn.getTransferMode()) {
-				pooledClient.reconnectWithTransferMode(conn.getTransferMode());
+				// switch the transfer mode of the session if this call asks for another one (TYPE)
+				pooledClient.setTransferMode(conn.getTransferMode());
+			} catch (Exception e) {
+				// the caller never gets the client, so nobody would return it
+				invalidateClient(pooledClient);
+				throw e;
 			}
 
 			return pooledClient;
 
 		} catch (Exception e) {
+			breaker.release();
 			if (e instanceof IOException) {
 				throw (IOException) e;
 			}
@@ -92,6 +188,40 @@ public final class FTPConnectionPool {
 		}
 	}
 
+	/**
+	 * @return the client pinned to the current request for this connection (see
+	 *         {@link #pin(PageContext, PooledFTPClient)}), null if there is none
+	 */
+	public PooledFTPClient getPinned(PageContext pc, FTPConnection conn) throws IOException {
+		PooledFTPClient pooledClient = affinity.get(pc, conn);
+		if (pooledClient != null) {
+			// not validated, if the session was dropped in the meantime the caller replaces it
+			pooledClient.setUnverified(true);
+			GenericObjectPool<PooledFTPClient> pool = getPool(pooledClient);
+			if (pool != null)
+				pool.use(pooledClient);
+			pooledClient.setTransferMode(conn.getTransferMode());
+		}
+		return pooledClient;
+	}
+
+	/**
+	 * Pin a borrowed client to the current request, instead of returning it after every tag it is
+	 * returned to the pool after the request ended
+	 */
+	public void pin(PageContext pc, PooledFTPClient client) {
+		affinity.pin(pc, client, this);
+	}
+
+	/**
+	 * Release a client pinned to the current request, it is not returned to the pool
+	 *
+	 * @return true if the client was pinned
+	 */
+	public boolean unpin(PageContext pc, PooledFTPClient client) {
+		return affinity.unpin(pc, client);
+	}
+
 	/**
 	 * Return a client to the pool
 	 */
@@ -99,12 +229,16 @@ public final class FTPConnectionPool {
 		if (client == null)
 			return;
 
-		String poolKey = getPoolKey(client.getConnection());
-		GenericObjectPool<PooledFTPClient> pool = pools.get(poolKey);
+		GenericObjectPool<PooledFTPClient> pool = getPool(client);
 
 		if (pool != null) {
+			((FTPClientPoolFactory) pool.getFactory()).touch();
 			try {
-				pool.returnObject(client);
+				// a flush happened while the client was in use
+				if (((FTPClientPoolFactory) pool.getFactory()).isFlushed(client))
+					pool.invalidateObject(client);
+				else
+					pool.returnObject(client);
 			} catch (Exception e) {
 				// Log error but don't throw - just invalidate the client
 				try {
@@ -130,8 +264,7 @@ public final class FTPConnectionPool {
 		if (client == null)
 			return;
 
-		String poolKey = getPoolKey(client.getConnection());
-		GenericObjectPool<PooledFTPClient> pool = pools.get(poolKey);
+		GenericObjectPool<PooledFTPClient> pool = getPool(client);
 
 		if (pool != null) {
 			try {
@@ -149,6 +282,69 @@ public final class FTPConnectionPool {
 		}
 	}
 
+	/**
+	 * Opens the missing minIdle connections of the pool for the given connection in the background, does
+	 * nothing if the pool is not configured to stay warm (minIdle=0)
+	 */
+	public void warmUp(FTPConnection conn) {
+		GenericObjectPool<PooledFTPClient> pool = pools.get(conn.getPoolKey());
+		if (pool != null) {
+			warmUp(pool);
+		}
+	}
+
+	void warmUp(GenericObjectPool<PooledFTPClient> pool) {
+		if (pool.getMinIdle() < 1 || pool.getNumIdle() >= pool.getMinIdle())
+			return;
+		warmUpExecutor.execute(() -> {
+			try {
+				pool.preparePool();
+			} catch (Exception e) {
+				LogUtil.log(Log.LEVEL_WARN, e);
+			}
+		});
+	}
+
+	CircuitBreaker getCircuitBreaker(FTPConnection conn) {
+		String server = (conn.getServer() == null ? "" : conn.getServer().toLowerCase()) + ":" + conn.getPort();
+		return breakers.computeIfAbsent(server, CircuitBreaker::new);
+	}
+
+	/**
+	 * Closes the idle connections of all pools to the given server, or of all pools if the server is
+	 * null, so they give back their connection budget
+	 */
+	void clearIdle(String server) {
+		for (GenericObjectPool<PooledFTPClient> pool : pools.values()) {
+			if (pool.getNumIdle() > 0 && (server == null || server.equalsIgnoreCase(getConnection(pool).getServer()))) {
+				pool.clear();
+			}
+		}
+	}
+
+	/**
+	 * Closes and removes the pools of unnamed connections that had no connection in use and were not
+	 * touched for lucee.ftp.pool.unusedTimeout. Every unnamed server/port/user combination gets its own
+	 * pool, without this they would pile up for the lifetime of the server. Named pools stay until they
+	 * are closed explicitly.
+	 */
+	private void removeUnused() {
+		try {
+			long now = System.currentTimeMillis();
+			for (Map.Entry<PoolKey, GenericObjectPool<PooledFTPClient>> e: pools.entrySet()) {
+				GenericObjectPool<PooledFTPClient> pool = e.getValue();
+				if (e.getKey().isNamed() || pool.getNumActive() > 0 || pool.getNumWaiters() > 0)
+					continue;
+				if (now - ((FTPClientPoolFactory) pool.getFactory()).getLastUsed() < UNUSED_TIMEOUT_MS)
+					continue;
+				if (pools.remove(e.getKey(), pool))
+					closePool(pool);
+			}
+		} catch (Exception e) {
+			LogUtil.log(Log.LEVEL_WARN, e);
+		}
+	}
+
 	/**
 	 * Remove a named connection pool
 	 */
@@ -156,9 +352,9 @@ public final class FTPConnectionPool {
 		if (name == null)
 			return;
 
-		GenericObjectPool<PooledFTPClient> pool = pools.remove(name);
+		GenericObjectPool<PooledFTPClient> pool = pools.remove(PoolKey.named(name));
 		if (pool != null) {
-			pool.close();
+			closePool(pool);
 		}
 	}
 
@@ -167,7 +363,7 @@ public final class FTPConnectionPool {
 	 */
 	public void clearAll() {
 		for (GenericObjectPool<PooledFTPClient> pool : pools.values()) {
-			pool.close();
+			closePool(pool);
 		}
 		pools.clear();
 	}
@@ -176,64 +372,154 @@ public final class FTPConnectionPool {
 	 * Get pool statistics for monitoring
 	 */
 	public PoolStats getPoolStats(String name) {
-		GenericObjectPool<PooledFTPClient> pool = pools.get(name);
+		GenericObjectPool<PooledFTPClient> pool = pools.get(PoolKey.named(name));
 		if (pool == null) {
 			return null;
 		}
 
+		return getPoolStats(pool);
+	}
+
+	/**
+	 * Get the statistics of all pools, the key is the connection name or server:port:user:secure of an
+	 * unnamed connection (with a counter appended if several pools share that label)
+	 */
+	public Map<String, PoolStats> getAllPoolStats() {
+		Map<String, PoolStats> stats = new LinkedHashMap<>();
+		for (Map.Entry<PoolKey, GenericObjectPool<PooledFTPClient>> e: pools.entrySet()) {
+			String label = e.getKey().toString();
+			for (int i = 2; stats.containsKey(label); i++) {
+				label = e.getKey() + " (" + i + ")";
+			}
+			stats.put(label, getPoolStats(e.getValue()));
+		}
+		return stats;
+	}
+
+	private static PoolStats getPoolStats(GenericObjectPool<PooledFTPClient> pool) {
 		return new PoolStats(pool.getNumActive(), pool.getNumIdle(), pool.getNumWaiters(), pool.getMaxTotal(),
-				pool.getMaxIdle(), pool.getMinIdle());
+				pool.getMaxIdle(), pool.getMinIdle(), ((FTPClientPoolFactory) pool.getFactory()).getMetrics());
+	}
+
+	/**
+	 * writes the statistics of all pools to the log once per interval, done by the thread that borrows
+	 * first after the interval elapsed, so no extra thread is needed
+	 */
+	private void logSnapshot() {
+		if (METRICS_LOG_INTERVAL_MS <= 0)
+			return;
+		long now = System.currentTimeMillis();
+		long next = nextSnapshot.get();
+		// the first snapshot is written one interval after the first borrow, not right away
+		if (next == 0) {
+			nextSnapshot.compareAndSet(0, now + METRICS_LOG_INTERVAL_MS);
+			return;
+		}
+		if (now < next || !nextSnapshot.compareAndSet(next, now + METRICS_LOG_INTERVAL_MS))
+			return;
+		for (Map.Entry<String, PoolStats> e: getAllPoolStats().entrySet()) {
+			LogUtil.log(Log.LEVEL_INFO, "pool [" + e.getKey() + "] " + e.getValue());
+		}
 	}
 
 	/**
 	 * Get or create a pool for the given connection
 	 */
-	private GenericObjectPool<PooledFTPClient> getOrCreatePool(String poolKey, FTPConnection conn) {
+	private GenericObjectPool<PooledFTPClient> getOrCreatePool(PoolKey poolKey, FTPConnection conn) {
 		return pools.computeIfAbsent(poolKey, key -> {
-			FTPClientPoolFactory factory = new FTPClientPoolFactory(conn, DEFAULT_MAX_IDLE_TIME_MS,
-					DEFAULT_MAX_LIVE_TIME_MS);
+			PoolSettings settings = conn.getPoolSettings();
+			FTPClientPoolFactory factory = new FTPClientPoolFactory(conn, settings.getIdleTimeoutMs(),
+					settings.getLiveTimeoutMs(), settings.getValidationWindowMs(), settings.getMaxWaitMs());
 
 			GenericObjectPoolConfig<PooledFTPClient> config = new GenericObjectPoolConfig<>();
-			config.setMaxTotal(defaultPoolConfig.getMaxTotal());
-			config.setMaxIdle(defaultPoolConfig.getMaxIdle());
-			config.setMinIdle(defaultPoolConfig.getMinIdle());
+			settings.configure(config);
 			config.setTimeBetweenEvictionRuns(defaultPoolConfig.getTimeBetweenEvictionRuns());
-			config.setMinEvictableIdleTime(defaultPoolConfig.getMinEvictableIdleTime());
-			config.setSoftMinEvictableIdleTime(defaultPoolConfig.getSoftMinEvictableIdleTime());
 			config.setNumTestsPerEvictionRun(defaultPoolConfig.getNumTestsPerEvictionRun());
 			config.setTestWhileIdle(defaultPoolConfig.getTestWhileIdle());
 			config.setTestOnBorrow(defaultPoolConfig.getTestOnBorrow());
 			config.setTestOnReturn(defaultPoolConfig.getTestOnReturn());
 			config.setBlockWhenExhausted(defaultPoolConfig.getBlockWhenExhausted());
-			config.setMaxWait(defaultPoolConfig.getMaxWaitDuration());
-			config.setJmxEnabled(false); // Disable per-pool JMX
+			config.setJmxEnabled(false); // see registerMBean
 
-			GenericObjectPool<PooledFTPClient> pool = new GenericObjectPool<>(factory, config);
+			GenericObjectPool<PooledFTPClient> pool = new GenericObjectPool<>(factory, config, abandonedConfig());
 			pool.setSwallowedExceptionListener(exception -> {
 				// Log swallowed exceptions
-				System.err.println("FTP Pool swallowed exception: " + exception.getMessage());
+				LogUtil.log(Log.LEVEL_WARN, exception);
 			});
 
+			registerMBean(key, pool);
+
+			// the evictor keeps minIdle topped up from now on
+			warmUp(pool);
 			return pool;
 		});
 	}
 
 	/**
-	 * Generate a unique key for a connection pool
+	 * connections borrowed and not used for lucee.ftp.pool.abandonedTimeout (f.e. a page aborted between
+	 * borrow and return) are reclaimed by the evictor or the next borrow of an exhausted pool, the
+	 * factory logs the template that borrowed them
 	 */
-	private String getPoolKey(FTPConnection conn) {
-		if (conn.hasName()) {
-			return conn.getName();
+	private static AbandonedConfig abandonedConfig() {
+		if (ABANDONED_TIMEOUT_MS <= 0)
+			return null;
+		AbandonedConfig ac = new AbandonedConfig();
+		ac.setRemoveAbandonedOnBorrow(true);
+		ac.setRemoveAbandonedOnMaintenance(true);
+		ac.setRemoveAbandonedTimeout(Duration.ofMillis(ABANDONED_TIMEOUT_MS));
+		// the factory logs the borrowing template, the stack trace of the borrow site is of no use
+		ac.setLogAbandoned(false);
+		// a client pinned to a request counts as used with every tag
+		ac.setUseUsageTracking(true);
+		return ac;
+	}
+
+	/**
+	 * registers a {@link FTPPoolControl} MBean for the pool, a failure only disables JMX for this pool
+	 */
+	private void registerMBean(PoolKey key, GenericObjectPool<PooledFTPClient> pool) {
+		if (!JMX_ENABLED)
+			return;
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		String label = key.toString();
+		for (int i = 2;; i++) {
+			try {
+				ObjectName name = new ObjectName(JMX_DOMAIN + ":type=ConnectionPool,name=" + ObjectName.quote(label));
+				server.registerMBean(new FTPPoolControl(pool), name);
+				((FTPClientPoolFactory) pool.getFactory()).setObjectName(name);
+				return;
+			} catch (InstanceAlreadyExistsException e) {
+				// unnamed pools of the same server and user with different credentials
+				label = key + " (" + i + ")";
+			} catch (Exception e) {
+				LogUtil.log(Log.LEVEL_WARN, e);
+				return;
+			}
 		}
+	}
 
-		// Generate key from connection parameters
-		StringBuilder sb = new StringBuilder();
-		sb.append(conn.getServer()).append(":");
-		sb.append(conn.getPort()).append(":");
-		sb.append(conn.getUsername() != null ? conn.getUsername() : "anonymous").append(":");
-		sb.append(conn.secure());
+	private static void closePool(GenericObjectPool<PooledFTPClient> pool) {
+		ObjectName name = ((FTPClientPoolFactory) pool.getFactory()).getObjectName();
+		if (name != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+			} catch (Exception e) {
+				LogUtil.log(Log.LEVEL_WARN, e);
+			}
+		}
+		pool.close();
+	}
 
-		return sb.toString();
+	/**
+	 * the pool the client was created by, null if that pool no longer exists
+	 */
+	private GenericObjectPool<PooledFTPClient> getPool(PooledFTPClient client) {
+		GenericObjectPool<PooledFTPClient> pool = pools.get(client.getConnection().getPoolKey());
+		return pool != null && getConnection(pool) == client.getConnection() ? pool : null;
+	}
+
+	private static FTPConnection getConnection(GenericObjectPool<PooledFTPClient> pool) {
+		return ((FTPClientPoolFactory) pool.getFactory()).getConnection();
 	}
 
 	/**
@@ -246,14 +532,17 @@ public final class FTPConnectionPool {
 		private final int maxTotal;
 		private final int maxIdle;
 		private final int minIdle;
+		private final PoolMetrics metrics;
 
-		public PoolStats(int numActive, int numIdle, int numWaiters, int maxTotal, int maxIdle, int minIdle) {
+		public PoolStats(int numActive, int numIdle, int numWaiters, int maxTotal, int maxIdle, int minIdle,
+				PoolMetrics metrics) {
 			this.numActive = numActive;
 			this.numIdle = numIdle;
 			this.numWaiters = numWaiters;
 			this.maxTotal = maxTotal;
 			this.maxIdle = maxIdle;
 			this.minIdle = minIdle;
+			this.metrics = metrics;
 		}
 
 		public int getNumActive() {
@@ -280,10 +569,17 @@ public final class FTPConnectionPool {
 			return minIdle;
 		}
 
+		/**
+		 * @return the counters of the pool, they keep counting, the other values are a snapshot
+		 */
+		public PoolMetrics getMetrics() {
+			return metrics;
+		}
+
 		@Override
 		public String toString() {
-			return String.format("PoolStats[active=%d, idle=%d, waiters=%d, maxTotal=%d, maxIdle=%d, minIdle=%d]",
-					numActive, numIdle, numWaiters, maxTotal, maxIdle, minIdle);
+			return String.format("PoolStats[active=%d, idle=%d, waiters=%d, maxTotal=%d, maxIdle=%d, minIdle=%d, %s]",
+					numActive, numIdle, numWaiters, maxTotal, maxIdle, minIdle, metrics);
 		}
 	}
 }
\ No newline at end of file
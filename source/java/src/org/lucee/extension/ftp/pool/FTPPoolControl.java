@@ -0,0 +1,129 @@
+package org.lucee.extension.ftp.pool;
+
+import java.time.Duration;
+
+import javax.management.MBeanOperationInfo;
+import javax.management.NotCompliantMBeanException;
+import javax.management.StandardMBean;
+
+import org.apache.commons.pool2.impl.GenericObjectPool;
+
+/**
+ * JMX MBean of a single FTP connection pool
+ */
+public final class FTPPoolControl extends StandardMBean implements FTPPoolControlMBean {
+
+	private final GenericObjectPool<PooledFTPClient> pool;
+	private final FTPClientPoolFactory factory;
+
+	FTPPoolControl(GenericObjectPool<PooledFTPClient> pool) throws NotCompliantMBeanException {
+		super(FTPPoolControlMBean.class);
+		this.pool = pool;
+		this.factory = (FTPClientPoolFactory) pool.getFactory();
+	}
+
+	@Override
+	public String getServer() {
+		return factory.getConnection().getServer() + ":" + factory.getConnection().getPort();
+	}
+
+	@Override
+	public int getNumActive() {
+		return pool.getNumActive();
+	}
+
+	@Override
+	public int getNumIdle() {
+		return pool.getNumIdle();
+	}
+
+	@Override
+	public int getNumWaiters() {
+		return pool.getNumWaiters();
+	}
+
+	@Override
+	public int getMaxTotal() {
+		return pool.getMaxTotal();
+	}
+
+	@Override
+	public int getMaxIdle() {
+		return pool.getMaxIdle();
+	}
+
+	@Override
+	public int getMinIdle() {
+		return pool.getMinIdle();
+	}
+
+	@Override
+	public long getMaxWaitMillis() {
+		return pool.getMaxWaitDuration().toMillis();
+	}
+
+	@Override
+	public void setMaxWaitMillis(long maxWaitMillis) {
+		pool.setMaxWait(Duration.ofMillis(maxWaitMillis));
+		factory.setMaxWaitMs(maxWaitMillis);
+	}
+
+	@Override
+	public long getBorrows() {
+		return factory.getMetrics().getBorrows();
+	}
+
+	@Override
+	public long getBorrowWaitMaxMillis() {
+		return factory.getMetrics().getBorrowWaitMaxMs();
+	}
+
+	@Override
+	public long getCreates() {
+		return factory.getMetrics().getCreates();
+	}
+
+	@Override
+	public long getDestroys() {
+		return factory.getMetrics().getDestroys();
+	}
+
+	@Override
+	public long getValidationFailures() {
+		return factory.getMetrics().getValidationFailures();
+	}
+
+	@Override
+	public void resize(int maxTotal, int maxIdle, int minIdle) {
+		int before = pool.getMinIdle();
+		new PoolSettings(maxTotal, maxIdle, minIdle, -1, -1, -1, -1).apply(pool, factory);
+		if (pool.getMinIdle() > before)
+			FTPConnectionPool.getInstance().warmUp(pool);
+	}
+
+	@Override
+	public void drain() {
+		pool.clear();
+	}
+
+	@Override
+	public void flush() {
+		factory.flush();
+		pool.clear();
+	}
+
+	@Override
+	protected String getDescription(MBeanOperationInfo info) {
+		switch (info.getName()) {
+		case "resize":
+			return "change the limits of the pool, a negative value leaves the limit as it is";
+		case "drain":
+			return "close the idle connections, connections in use are not touched";
+		case "flush":
+			return "replace all connections, they log in again with the login data the pool was created with. "
+					+ "To use rotated credentials open the connection again with the new login data, "
+					+ "that replaces the pool.";
+		}
+		return super.getDescription(info);
+	}
+}
@@ -0,0 +1,54 @@
+package org.lucee.extension.ftp.pool;
+
+/**
+ * JMX view of a single FTP connection pool, registered as
+ * "org.lucee.extension.ftp:type=ConnectionPool,name=&lt;connection&gt;"
+ */
+public interface FTPPoolControlMBean {
+
+	public String getServer();
+
+	public int getNumActive();
+
+	public int getNumIdle();
+
+	public int getNumWaiters();
+
+	public int getMaxTotal();
+
+	public int getMaxIdle();
+
+	public int getMinIdle();
+
+	public long getMaxWaitMillis();
+
+	public void setMaxWaitMillis(long maxWaitMillis);
+
+	public long getBorrows();
+
+	public long getBorrowWaitMaxMillis();
+
+	public long getCreates();
+
+	public long getDestroys();
+
+	public long getValidationFailures();
+
+	/**
+	 * change the limits of the pool, a negative value leaves the limit as it is
+	 */
+	public void resize(int maxTotal, int maxIdle, int minIdle);
+
+	/**
+	 * close the idle connections, connections in use are not touched
+	 */
+	public void drain();
+
+	/**
+	 * replace all connections, idle connections are closed immediately, connections in use when they
+	 * are returned, so no session logged in before survives. The new connections log in with the login
+	 * data the pool was created with; to use rotated credentials, open the connection again with the
+	 * new login data, that replaces the pool.
+	 */
+	public void flush();
+}
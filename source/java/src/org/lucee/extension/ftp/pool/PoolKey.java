@@ -0,0 +1,106 @@
+package org.lucee.extension.ftp.pool;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import org.lucee.extension.ftp.FTPConnection;
+
+/**
+ * Immutable key of a connection pool, computed once per connection.
+ *
+ * A named connection is identified by its name, an unnamed connection by server, port, user and
+ * protocol plus a digest of everything else that affects the session (password, key, passphrase,
+ * proxy, passive flag and fingerprint), so different credentials against the same host never share
+ * a pool. The secrets only enter the key as SHA-256 digest.
+ */
+public final class PoolKey {
+
+	private final String name;
+	private final String id;
+	private final byte[] credentials;
+	private final int hash;
+
+	private PoolKey(String name, String id, byte[] credentials) {
+		this.name = name;
+		this.id = id;
+		this.credentials = credentials;
+		this.hash = name != null ? name.hashCode() : 31 * id.hashCode() + Arrays.hashCode(credentials);
+	}
+
+	public static PoolKey of(FTPConnection conn) {
+		String user = conn.getUsername() != null ? conn.getUsername() : "anonymous";
+		String server = conn.getServer() != null ? conn.getServer().toLowerCase() : null;
+		String id = server + ":" + conn.getPort() + ":" + user + ":" + conn.secure();
+
+		byte[] credentials = digest(id, conn.getPassword(), conn.getKey(), conn.getPassphrase(), conn.getProxyServer(),
+				String.valueOf(conn.getProxyPort()), conn.getProxyUser(), conn.getProxyPassword(),
+				String.valueOf(conn.isPassive()), conn.getFingerprint(), String.valueOf(conn.getSSHSettings()));
+
+		return new PoolKey(conn.hasName() ? conn.getName() : null, id, credentials);
+	}
+
+	/**
+	 * key of the pool of a named connection
+	 */
+	public static PoolKey named(String name) {
+		String n = name.toLowerCase().trim();
+		return new PoolKey(n, n, new byte[0]);
+	}
+
+	public boolean isNamed() {
+		return name != null;
+	}
+
+	/**
+	 * @return true if both keys were computed from the same server, login and session settings,
+	 *         independent of the connection name
+	 */
+	public boolean sameCredentials(PoolKey other) {
+		return MessageDigest.isEqual(credentials, other.credentials);
+	}
+
+	private static byte[] digest(String... values) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			for (String value: values) {
+				if (value != null)
+					md.update(value.getBytes(StandardCharsets.UTF_8));
+				// separator, so ("ab","c") and ("a","bc") differ
+				md.update((byte) 0);
+			}
+			return md.digest();
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof PoolKey))
+			return false;
+		PoolKey other = (PoolKey) obj;
+		if (hash != other.hash)
+			return false;
+		if (name != null || other.name != null)
+			return name != null && name.equals(other.name);
+		return id.equals(other.id) && Arrays.equals(credentials, other.credentials);
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	/**
+	 * name or server:port:user:secure, never contains secrets
+	 */
+	@Override
+	public String toString() {
+		return name != null ? name : id;
+	}
+}
@@ -0,0 +1,175 @@
+package org.lucee.extension.ftp.pool;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of a single connection pool, updated lock free by the threads using the pool
+ */
+public final class PoolMetrics {
+
+	/**
+	 * upper bounds (exclusive) of the borrow wait histogram buckets, the last bucket holds everything
+	 * above
+	 */
+	public static final long[] BORROW_WAIT_BUCKETS_MS = { 1, 10, 100, 1000, 10000 };
+
+	private final LongAdder[] borrowWait = new LongAdder[BORROW_WAIT_BUCKETS_MS.length + 1];
+	private final LongAdder borrowWaitTotalMs = new LongAdder();
+	private final LongAccumulator borrowWaitMaxMs = new LongAccumulator(Math::max, 0);
+	private final LongAdder creates = new LongAdder();
+	private final LongAdder destroys = new LongAdder();
+	private final LongAdder validationFailures = new LongAdder();
+	private final Map<String, ActionMetrics> actions = new ConcurrentHashMap<>();
+
+	public PoolMetrics() {
+		for (int i = 0; i < borrowWait.length; i++) {
+			borrowWait[i] = new LongAdder();
+		}
+	}
+
+	void recordBorrow(long waitMs) {
+		int i = 0;
+		while (i < BORROW_WAIT_BUCKETS_MS.length && waitMs >= BORROW_WAIT_BUCKETS_MS[i])
+			i++;
+		borrowWait[i].increment();
+		borrowWaitTotalMs.add(waitMs);
+		borrowWaitMaxMs.accumulate(waitMs);
+	}
+
+	void recordCreate() {
+		creates.increment();
+	}
+
+	void recordDestroy() {
+		destroys.increment();
+	}
+
+	void recordValidationFailure() {
+		validationFailures.increment();
+	}
+
+	/**
+	 * @param action
+	 *            name of the action (f.e. "getfile")
+	 * @param durationMs
+	 *            time the action took, retries included
+	 * @param bytes
+	 *            bytes transferred by the action, 0 for actions without a transfer
+	 * @param failed
+	 *            true if the action ended with an exception
+	 */
+	public void recordAction(String action, long durationMs, long bytes, boolean failed) {
+		actions.computeIfAbsent(action, k -> new ActionMetrics()).record(durationMs, bytes, failed);
+	}
+
+	/**
+	 * @return number of borrows per bucket of {@link #BORROW_WAIT_BUCKETS_MS}
+	 */
+	public long[] getBorrowWaitHistogram() {
+		long[] histogram = new long[borrowWait.length];
+		for (int i = 0; i < borrowWait.length; i++) {
+			histogram[i] = borrowWait[i].sum();
+		}
+		return histogram;
+	}
+
+	public long getBorrows() {
+		long count = 0;
+		for (LongAdder bucket: borrowWait) {
+			count += bucket.sum();
+		}
+		return count;
+	}
+
+	public long getBorrowWaitTotalMs() {
+		return borrowWaitTotalMs.sum();
+	}
+
+	public long getBorrowWaitMaxMs() {
+		return borrowWaitMaxMs.get();
+	}
+
+	public long getCreates() {
+		return creates.sum();
+	}
+
+	public long getDestroys() {
+		return destroys.sum();
+	}
+
+	public long getValidationFailures() {
+		return validationFailures.sum();
+	}
+
+	/**
+	 * @return metrics per action, sorted by action name
+	 */
+	public Map<String, ActionMetrics> getActions() {
+		return new TreeMap<>(actions);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("borrows=").append(getBorrows()).append(", borrowWaitMax=").append(getBorrowWaitMaxMs())
+				.append("ms, creates=").append(getCreates()).append(", destroys=").append(getDestroys())
+				.append(", validationFailures=").append(getValidationFailures());
+		for (Map.Entry<String, ActionMetrics> e: getActions().entrySet()) {
+			sb.append(", ").append(e.getKey()).append('=').append(e.getValue());
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Counters of a single action
+	 */
+	public static final class ActionMetrics {
+
+		private final LongAdder count = new LongAdder();
+		private final LongAdder errors = new LongAdder();
+		private final LongAdder totalMs = new LongAdder();
+		private final LongAccumulator maxMs = new LongAccumulator(Math::max, 0);
+		private final LongAdder bytes = new LongAdder();
+
+		private void record(long durationMs, long bytes, boolean failed) {
+			count.increment();
+			if (failed)
+				errors.increment();
+			totalMs.add(durationMs);
+			maxMs.accumulate(durationMs);
+			if (bytes > 0)
+				this.bytes.add(bytes);
+		}
+
+		public long getCount() {
+			return count.sum();
+		}
+
+		public long getErrors() {
+			return errors.sum();
+		}
+
+		public long getTotalMs() {
+			return totalMs.sum();
+		}
+
+		public long getMaxMs() {
+			return maxMs.get();
+		}
+
+		public long getBytes() {
+			return bytes.sum();
+		}
+
+		@Override
+		public String toString() {
+			long c = getCount();
+			return String.format("[count=%d, errors=%d, avg=%dms, max=%dms, bytes=%d]", c, getErrors(),
+					c == 0 ? 0 : getTotalMs() / c, getMaxMs(), getBytes());
+		}
+	}
+}
@@ -0,0 +1,163 @@
+package org.lucee.extension.ftp.pool;
+
+import java.time.Duration;
+
+import org.apache.commons.pool2.impl.GenericObjectPool;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+
+import lucee.loader.engine.CFMLEngineFactory;
+import lucee.loader.util.Util;
+
+/**
+ * Pool limits and timeouts of a single connection pool. Every value is optional (-1), unset values
+ * fall back to the node wide default, defined by system property or environment variable
+ * (f.e. "lucee.ftp.pool.maxTotal"), or to the built-in default.
+ */
+public final class PoolSettings {
+
+	public static final PoolSettings NONE = new PoolSettings(-1, -1, -1, -1, -1, -1, -1);
+
+	private static final int DEFAULT_MAX_TOTAL = getDefault("lucee.ftp.pool.maxTotal", 50);
+	private static final int DEFAULT_MAX_IDLE = getDefault("lucee.ftp.pool.maxIdle", 10);
+	private static final int DEFAULT_MIN_IDLE = getDefault("lucee.ftp.pool.minIdle", 0);
+	private static final long DEFAULT_MAX_WAIT_MS = getDefault("lucee.ftp.pool.maxWait", 10) * 1000L;
+	private static final long DEFAULT_IDLE_TIMEOUT_MS = getDefault("lucee.ftp.pool.idleTimeout", 60) * 1000L;
+	private static final long DEFAULT_LIVE_TIMEOUT_MS = getDefault("lucee.ftp.pool.liveTimeout", 300) * 1000L;
+	private static final long DEFAULT_VALIDATION_WINDOW_MS = getDefault("lucee.ftp.pool.validationWindow", 5)
+			* 1000L;
+
+	private final int maxTotal;
+	private final int maxIdle;
+	private final int minIdle;
+	private final long maxWaitMs;
+	private final long idleTimeoutMs;
+	private final long liveTimeoutMs;
+	private final long validationWindowMs;
+
+	/**
+	 * @param maxTotal
+	 *            max number of connections (active and idle) of the pool
+	 * @param maxIdle
+	 *            max number of idle connections kept in the pool
+	 * @param minIdle
+	 *            number of connections opened in advance and kept open, 0 to disable warm-up
+	 * @param maxWaitMs
+	 *            max time a borrow waits for a connection when the pool is exhausted
+	 * @param idleTimeoutMs
+	 *            time a connection can stay idle before it is evicted
+	 * @param liveTimeoutMs
+	 *            max time a connection is used before it is replaced, 0 for unlimited
+	 * @param validationWindowMs
+	 *            a connection that completed a command within this time is handed out without probing
+	 *            it first, 0 to always probe
+	 */
+	public PoolSettings(int maxTotal, int maxIdle, int minIdle, long maxWaitMs, long idleTimeoutMs,
+			long liveTimeoutMs, long validationWindowMs) {
+		this.maxTotal = maxTotal;
+		this.maxIdle = maxIdle;
+		this.minIdle = minIdle;
+		this.maxWaitMs = maxWaitMs;
+		this.idleTimeoutMs = idleTimeoutMs;
+		this.liveTimeoutMs = liveTimeoutMs;
+		this.validationWindowMs = validationWindowMs;
+	}
+
+	public int getMaxTotal() {
+		return maxTotal < 1 ? DEFAULT_MAX_TOTAL : maxTotal;
+	}
+
+	public int getMaxIdle() {
+		return maxIdle < 0 ? Math.min(DEFAULT_MAX_IDLE, getMaxTotal()) : maxIdle;
+	}
+
+	public int getMinIdle() {
+		return Math.min(minIdle < 0 ? DEFAULT_MIN_IDLE : minIdle, getMaxTotal());
+	}
+
+	public long getMaxWaitMs() {
+		return maxWaitMs < 0 ? DEFAULT_MAX_WAIT_MS : maxWaitMs;
+	}
+
+	public long getIdleTimeoutMs() {
+		return idleTimeoutMs < 0 ? DEFAULT_IDLE_TIMEOUT_MS : idleTimeoutMs;
+	}
+
+	public long getLiveTimeoutMs() {
+		return liveTimeoutMs < 0 ? DEFAULT_LIVE_TIMEOUT_MS : liveTimeoutMs;
+	}
+
+	public long getValidationWindowMs() {
+		return validationWindowMs < 0 ? DEFAULT_VALIDATION_WINDOW_MS : validationWindowMs;
+	}
+
+	/**
+	 * @return true if at least one value was explicitly defined
+	 */
+	public boolean isDefined() {
+		return maxTotal > 0 || maxIdle > -1 || minIdle > -1 || maxWaitMs > -1 || idleTimeoutMs > -1
+				|| liveTimeoutMs > -1 || validationWindowMs > -1;
+	}
+
+	/**
+	 * copy the resolved settings to a pool configuration
+	 */
+	void configure(GenericObjectPoolConfig<PooledFTPClient> config) {
+		config.setMaxTotal(getMaxTotal());
+		config.setMaxIdle(getMaxIdle());
+		config.setMinIdle(getMinIdle());
+		config.setMaxWait(Duration.ofMillis(getMaxWaitMs()));
+		config.setMinEvictableIdleDuration(minEvictableIdle(getMinIdle(), getIdleTimeoutMs()));
+		config.setSoftMinEvictableIdleDuration(Duration.ofMillis(getIdleTimeoutMs()));
+	}
+
+	/**
+	 * apply the explicitly defined values to an existing pool, unset values are left untouched
+	 */
+	void apply(GenericObjectPool<PooledFTPClient> pool, FTPClientPoolFactory factory) {
+		if (maxTotal > 0 && pool.getMaxTotal() != maxTotal)
+			pool.setMaxTotal(maxTotal);
+		if (maxIdle > -1 && pool.getMaxIdle() != maxIdle)
+			pool.setMaxIdle(maxIdle);
+		if (minIdle > -1 && pool.getMinIdle() != minIdle) {
+			pool.setMinIdle(minIdle);
+			pool.setMinEvictableIdleDuration(minEvictableIdle(minIdle, pool.getSoftMinEvictableIdleDuration().toMillis()));
+		}
+		if (maxWaitMs > -1 && pool.getMaxWaitDuration().toMillis() != maxWaitMs) {
+			pool.setMaxWait(Duration.ofMillis(maxWaitMs));
+			factory.setMaxWaitMs(maxWaitMs);
+		}
+		if (idleTimeoutMs > -1 && pool.getSoftMinEvictableIdleDuration().toMillis() != idleTimeoutMs) {
+			pool.setMinEvictableIdleDuration(minEvictableIdle(pool.getMinIdle(), idleTimeoutMs));
+			pool.setSoftMinEvictableIdleDuration(Duration.ofMillis(idleTimeoutMs));
+		}
+		if (liveTimeoutMs > -1)
+			factory.setMaxLiveTimeMs(liveTimeoutMs);
+		if (validationWindowMs > -1)
+			factory.setValidationWindowMs(validationWindowMs);
+	}
+
+	/**
+	 * a warm pool only evicts the idle connections above minIdle (soft eviction), otherwise the evictor
+	 * would close the warm connections only to open them again with the next run
+	 */
+	private static Duration minEvictableIdle(int minIdle, long idleTimeoutMs) {
+		return minIdle > 0 ? Duration.ofMillis(-1) : Duration.ofMillis(idleTimeoutMs);
+	}
+
+	/**
+	 * @return the system property or environment variable with the given name as number, the default
+	 *         value if it is not set or no number
+	 */
+	public static int getDefault(String name, int defaultValue) {
+		return CFMLEngineFactory.getInstance().getCastUtil().toIntValue(Util.getSystemPropOrEnvVar(name, null),
+				defaultValue);
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"PoolSettings[maxTotal=%d, maxIdle=%d, minIdle=%d, maxWait=%dms, idleTimeout=%dms, liveTimeout=%dms, validationWindow=%dms]",
+				getMaxTotal(), getMaxIdle(), getMinIdle(), getMaxWaitMs(), getIdleTimeoutMs(), getLiveTimeoutMs(),
+				getValidationWindowMs());
+	}
+}
@@ -3,12 +3,9 @@ package org.lucee.extension.ftp.pool;
 import java.io.Closeable;
 import java.io.IOException;
 
-import org.apache.commons.net.ftp.FTP;
 import org.lucee.extension.ftp.AFTPClient;
 import org.lucee.extension.ftp.FTPConnection;
-import org.lucee.extension.ftp.FTPConnectionImpl;
 import org.lucee.extension.ftp.FTPConstant;
-import org.lucee.extension.ftp.FTPWrap;
 
 /**
  * Wrapper for an FTP client that tracks pooling metadata
@@ -19,12 +16,21 @@ public class PooledFTPClient implements Closeable {
 	private final FTPConnection connection;
 	private final long creationTime;
 	private long lastAccessTime;
+	private volatile long lastSuccessTime;
+	private volatile boolean used;
+	private volatile boolean unverified;
+	private short transferMode = FTPConstant.TRANSFER_MODE_AUTO;
+	private ConnectionBudget.Permit permit;
+	private PoolMetrics metrics;
+	private double lifetimeFactor = 1d;
+	private volatile String borrowSite;
 
 	public PooledFTPClient(AFTPClient client, FTPConnection connection) {
 		this.client = client;
 		this.connection = connection;
 		this.creationTime = System.currentTimeMillis();
 		this.lastAccessTime = this.creationTime;
+		this.lastSuccessTime = this.creationTime; // login just succeeded
 	}
 
 	public AFTPClient getClient() {
@@ -47,6 +53,42 @@ public class PooledFTPClient implements Closeable {
 		this.lastAccessTime = lastAccessTime;
 	}
 
+	/**
+	 * @return last time a command on this connection completed without an I/O error
+	 */
+	public long getLastSuccessTime() {
+		return lastSuccessTime;
+	}
+
+	/**
+	 * to be called after a command completed without an I/O error, the server answered, so the session
+	 * is alive
+	 */
+	public void markSuccess() {
+		this.lastSuccessTime = System.currentTimeMillis();
+		this.used = true;
+		this.unverified = false;
+	}
+
+	/**
+	 * @return true if the connection was used for at least one command
+	 */
+	public boolean isUsed() {
+		return used;
+	}
+
+	/**
+	 * @return true if the connection was handed out without probing it and did not complete a command
+	 *         since, an I/O error in this state means the session was dropped while it was idle
+	 */
+	public boolean isUnverified() {
+		return unverified;
+	}
+
+	void setUnverified(boolean unverified) {
+		this.unverified = unverified;
+	}
+
 	public long getAgeMs() {
 		return System.currentTimeMillis() - creationTime;
 	}
@@ -56,42 +98,71 @@ public class PooledFTPClient implements Closeable {
 	}
 
 	/**
-	 * Reconnect with a different transfer mode
+	 * @return the transfer mode last requested for this client
 	 */
-	public void reconnectWithTransferMode(short transferMode) throws IOException {
-		// Update the connection's transfer mode
-		if (connection instanceof FTPConnectionImpl) {
-			((FTPConnectionImpl) connection).setTransferMode(transferMode);
-		}
+	public short getTransferMode() {
+		return transferMode;
+	}
 
-		// Disconnect if connected
-		if (client != null && client.isConnected()) {
-			try {
-				client.quit();
-				client.disconnect();
-			} catch (IOException e) {
-				// Ignore disconnect errors
-			}
+	/**
+	 * Switch the transfer mode of the live session (TYPE command), the connection is not touched. The
+	 * client itself knows the type its session is in and only sends TYPE if it changes.
+	 * {@link FTPConstant#TRANSFER_MODE_AUTO} leaves the session as it is, the type is then set per file.
+	 */
+	public void setTransferMode(short transferMode) throws IOException {
+		this.transferMode = transferMode;
+		if (transferMode == FTPConstant.TRANSFER_MODE_ASCCI) {
+			client.setFileType(AFTPClient.FILE_TYPE_TEXT);
+		} else if (transferMode == FTPConstant.TRANSFER_MODE_BINARY) {
+			client.setFileType(AFTPClient.FILE_TYPE_BINARY);
 		}
+	}
 
-		// Reconnect
-		client.connect();
+	/**
+	 * the connection budget permit this client holds, released when the client is closed
+	 */
+	void setPermit(ConnectionBudget.Permit permit) {
+		this.permit = permit;
+	}
 
-		// Apply settings
-		FTPWrap.setConnectionSettings(client, connection);
+	/**
+	 * @return the metrics of the pool this client belongs to, null if it was not created by a pool
+	 */
+	public PoolMetrics getMetrics() {
+		return metrics;
+	}
 
-		// Set new transfer mode
-		if (transferMode == FTPConstant.TRANSFER_MODE_ASCCI) {
-			client.setFileType(FTP.ASCII_FILE_TYPE);
-		} else if (transferMode == FTPConstant.TRANSFER_MODE_BINARY) {
-			client.setFileType(FTP.BINARY_FILE_TYPE);
-		}
+	void setMetrics(PoolMetrics metrics) {
+		this.metrics = metrics;
+	}
 
-		this.lastAccessTime = System.currentTimeMillis();
+	/**
+	 * @return share (0-1] of the pool's max live time this connection lives
+	 */
+	public double getLifetimeFactor() {
+		return lifetimeFactor;
+	}
+
+	void setLifetimeFactor(double lifetimeFactor) {
+		this.lifetimeFactor = lifetimeFactor;
+	}
+
+	/**
+	 * @return the template that borrowed this client last, null if unknown
+	 */
+	public String getBorrowSite() {
+		return borrowSite;
+	}
+
+	void setBorrowSite(String borrowSite) {
+		this.borrowSite = borrowSite;
 	}
 
 	@Override
 	public void close() throws IOException {
+		if (permit != null) {
+			permit.release();
+		}
 		if (client != null && client.isConnected()) {
 			try {
 				client.quit();
@@ -0,0 +1,99 @@
+package org.lucee.extension.ftp.pool;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.lucee.extension.ftp.FTPConnection;
+
+import lucee.runtime.PageContext;
+
+/**
+ * Clients pinned to a request. All ftp tags of the request using the same connection work with the
+ * same client (and therefore the same working directory), without a borrow, validation and return
+ * per tag. The extension has no hook for the end of a request, so the pinned clients are returned by
+ * {@link #releaseEnded(FTPConnectionPool)}, called periodically, once the page context has moved on
+ * to another request or was released.
+ */
+final class RequestAffinity {
+
+	// a page context serves a single request (thread) at a time, so the inner maps are only touched by
+	// that thread and the cleaner
+	private final Map<PageContext, Pinned> pinned = new ConcurrentHashMap<>();
+
+	/**
+	 * @return the client pinned to the current request for this connection, or null
+	 */
+	PooledFTPClient get(PageContext pc, FTPConnection conn) {
+		Pinned p = pinned.get(pc);
+		if (p == null || !p.isCurrent(pc))
+			return null;
+		return p.clients.get(conn.getPoolKey());
+	}
+
+	void pin(PageContext pc, PooledFTPClient client, FTPConnectionPool pool) {
+		Pinned p = pinned.get(pc);
+		if (p != null && !p.isCurrent(pc)) {
+			// left over from the previous request of this page context
+			if (pinned.remove(pc, p))
+				p.returnAll(pool);
+			p = null;
+		}
+		if (p == null) {
+			p = new Pinned(pc);
+			pinned.put(pc, p);
+		}
+		PooledFTPClient previous = p.clients.put(client.getConnection().getPoolKey(), client);
+		if (previous != null && previous != client)
+			pool.returnClient(previous);
+	}
+
+	/**
+	 * @return true if the client was pinned
+	 */
+	boolean unpin(PageContext pc, PooledFTPClient client) {
+		Pinned p = pinned.get(pc);
+		return p != null && p.clients.remove(client.getConnection().getPoolKey(), client);
+	}
+
+	/**
+	 * returns the clients of all requests that ended
+	 */
+	void releaseEnded(FTPConnectionPool pool) {
+		Iterator<Map.Entry<PageContext, Pinned>> it = pinned.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<PageContext, Pinned> e = it.next();
+			Pinned p = e.getValue();
+			if (p.isCurrent(e.getKey()))
+				continue;
+			if (pinned.remove(e.getKey(), p))
+				p.returnAll(pool);
+		}
+	}
+
+	private static final class Pinned {
+
+		private final long startTime;
+		private final Object request;
+		private final Map<PoolKey, PooledFTPClient> clients = new ConcurrentHashMap<>();
+
+		private Pinned(PageContext pc) {
+			this.startTime = pc.getStartTime();
+			this.request = pc.getHttpServletRequest();
+		}
+
+		/**
+		 * the page context still serves the request the clients were pinned for
+		 */
+		private boolean isCurrent(PageContext pc) {
+			return pc.getStartTime() == startTime && pc.getHttpServletRequest() == request;
+		}
+
+		private void returnAll(FTPConnectionPool pool) {
+			for (PooledFTPClient client: clients.values()) {
+				pool.returnClient(client);
+			}
+			clients.clear();
+		}
+	}
+}
@@ -18,9 +18,20 @@
  **/
 package org.lucee.extension.ftp.tag;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Pattern;
 
 import org.apache.commons.net.ftp.FTPFile;
 import org.lucee.extension.ftp.AFTPClient;
@@ -28,11 +39,20 @@ import org.lucee.extension.ftp.FTPConnection;
 import org.lucee.extension.ftp.FTPConnectionImpl;
 import org.lucee.extension.ftp.FTPConstant;
 import org.lucee.extension.ftp.FTPPath;
+import org.lucee.extension.ftp.SSHSettings;
+import org.lucee.extension.ftp.SocketSettings;
 import org.lucee.extension.ftp.pool.FTPConnectionPool;
+import org.lucee.extension.ftp.pool.PoolMetrics;
+import org.lucee.extension.ftp.pool.PoolSettings;
 import org.lucee.extension.ftp.pool.PooledFTPClient;
+import org.lucee.extension.ftp.transfer.BatchTransfer;
+import org.lucee.extension.ftp.transfer.Mirror;
+import org.lucee.extension.ftp.transfer.SegmentedTransfer;
 import org.lucee.extension.ftp.util.ExceptionUtil;
+import org.lucee.extension.ftp.util.LogUtil;
 
 import jakarta.ejb.ApplicationException;
+import lucee.commons.io.log.Log;
 import lucee.commons.io.res.Resource;
 import lucee.loader.engine.CFMLEngine;
 import lucee.loader.engine.CFMLEngineFactory;
@@ -55,12 +75,23 @@ public final class Ftp extends TagImpl {
 	private static final int PORT_FTP = 21;
 	private static final int PORT_SFTP = 22;
 	private static final int PORT_FTPS = 990;
+	private static final boolean DEFAULT_REQUEST_AFFINITY = CFMLEngineFactory.getInstance().getCastUtil()
+			.toBooleanValue(Util.getSystemPropOrEnvVar("lucee.ftp.requestAffinity", ""), false);
+	private static final int DEFAULT_KEEP_ALIVE = CFMLEngineFactory.getInstance().getCastUtil()
+			.toIntValue(Util.getSystemPropOrEnvVar("lucee.ftp.keepAlive", ""), 0);
 
 	private static final Key SUCCEEDED;
 	private static final Key ERROR_CODE;
 	private static final Key ERROR_TEXT;
 	private static final Key RETURN_VALUE;
 	private static final Key CFFTP;
+	private static final Key FILES;
+	private static final Key FAILED;
+	private static final Key BYTES;
+	private static final Key TIME;
+	private static final Key BYTES_PER_SECOND;
+	private static final Key SKIPPED;
+	private static final Key DIRECTORIES;
 
 	static {
 		Creation creator = CFMLEngineFactory.getInstance().getCreationUtil();
@@ -69,6 +100,13 @@ public final class Ftp extends TagImpl {
 		ERROR_TEXT = creator.createKey("errorText");
 		RETURN_VALUE = creator.createKey("returnValue");
 		CFFTP = creator.createKey("cfftp");
+		FILES = creator.createKey("files");
+		FAILED = creator.createKey("failed");
+		BYTES = creator.createKey("bytes");
+		TIME = creator.createKey("time");
+		BYTES_PER_SECOND = creator.createKey("bytesPerSecond");
+		SKIPPED = creator.createKey("skipped");
+		DIRECTORIES = creator.createKey("directories");
 	}
 
 	/*
@@ -88,6 +126,8 @@ public final class Ftp extends TagImpl {
 	private String connectionName;
 	private int retrycount = 1;
 	private int count = 0;
+	// bytes transferred by getFile/putFile, for the pool metrics
+	private long transferred = 0;
 	private boolean stoponerror = true;
 	private boolean passive;
 	private String name;
@@ -114,6 +154,33 @@ public final class Ftp extends TagImpl {
 	private String passphrase = "";
 	private FTPConnectionPool pool;
 
+	private int poolMaxTotal = -1;
+	private int poolMaxIdle = -1;
+	private int poolMinIdle = -1;
+	private long poolMaxWait = -1;
+	private long poolIdleTimeout = -1;
+	private long poolLiveTimeout = -1;
+	private long poolValidationWindow = -1;
+	private boolean requestAffinity = DEFAULT_REQUEST_AFFINITY;
+	private int keepAlive = DEFAULT_KEEP_ALIVE;
+	private int parallel = 1;
+	private boolean resume;
+	private int bufferSize = -1;
+	private int socketBufferSize = -1;
+	private Boolean tcpNoDelay;
+	private boolean compress;
+	private Boolean sshCompression;
+	private String ciphers;
+	private String macs;
+	private String kex;
+	private int bulkRequests = -1;
+	private int windowSize = -1;
+	private int packetSize = -1;
+	private Object remoteFiles;
+	private Object localFiles;
+	private String localDirectory;
+	private boolean download = true;
+
 	// private Struct cfftp=new StructImpl();
 
 	@Override
@@ -135,6 +202,7 @@ public final class Ftp extends TagImpl {
 		this.proxypassword = "";
 		this.retrycount = 1;
 		this.count = 0;
+		this.transferred = 0;
 		this.stoponerror = true;
 		this.passive = false;
 		this.name = null;
@@ -154,6 +222,33 @@ public final class Ftp extends TagImpl {
 		this.recursive = false;
 		this.key = null;
 		this.passphrase = "";
+
+		this.poolMaxTotal = -1;
+		this.poolMaxIdle = -1;
+		this.poolMinIdle = -1;
+		this.poolMaxWait = -1;
+		this.poolIdleTimeout = -1;
+		this.poolLiveTimeout = -1;
+		this.poolValidationWindow = -1;
+		this.requestAffinity = DEFAULT_REQUEST_AFFINITY;
+		this.keepAlive = DEFAULT_KEEP_ALIVE;
+		this.parallel = 1;
+		this.resume = false;
+		this.bufferSize = -1;
+		this.socketBufferSize = -1;
+		this.tcpNoDelay = null;
+		this.compress = false;
+		this.sshCompression = null;
+		this.ciphers = null;
+		this.macs = null;
+		this.kex = null;
+		this.bulkRequests = -1;
+		this.windowSize = -1;
+		this.packetSize = -1;
+		this.remoteFiles = null;
+		this.localFiles = null;
+		this.localDirectory = null;
+		this.download = true;
 	}
 
 	public void setAction(String action) {
@@ -187,15 +282,33 @@ public final class Ftp extends TagImpl {
 		PooledFTPClient pooledClient = null;
 
 		boolean invalidateClient = false;
+		boolean pinned = false;
+		boolean failed = true;
+		long start = System.currentTimeMillis();
 		try {
-			pooledClient = pool.borrowClient(_createConnection());
-			final AFTPClient client = pooledClient.getClient();
+			FTPConnection conn = _createConnection();
+			// the client an earlier tag of this request pinned, open always starts with a fresh one
+			if (!action.equals("open")) {
+				pooledClient = pool.getPinned(pageContext, conn);
+				pinned = pooledClient != null;
+			}
+			if (pooledClient == null) {
+				pooledClient = pool.borrowClient(conn);
+				if (requestAffinity) {
+					pool.pin(pageContext, pooledClient);
+					pinned = true;
+				}
+			}
 			// retries
 			do {
-
+				final AFTPClient client = pooledClient.getClient();
 				try {
+					client.setControlKeepAlive(keepAlive);
+					// also switches a pooled client back, that an earlier tag left compressing
+					if (client.setCompression(compress) != compress)
+						LogUtil.log(Log.LEVEL_DEBUG, "the server does not support compressed transfers (MODE Z)");
 					if (action.equals("open"))
-						actionOpen(client);
+						actionOpen(client, conn);
 					else if (action.equals("close")) {
 						actionClose(client);
 						invalidateClient = true;
@@ -209,9 +322,15 @@ public final class Ftp extends TagImpl {
 					else if (action.equals("removedir"))
 						actionRemoveDir(client);
 					else if (action.equals("getfile"))
-						actionGetFile(client);
+						actionGetFile(client, conn);
 					else if (action.equals("putfile"))
-						actionPutFile(client);
+						actionPutFile(client, conn);
+					else if (action.equals("getfiles"))
+						invalidateClient = !actionGetFiles(client, conn);
+					else if (action.equals("putfiles"))
+						invalidateClient = !actionPutFiles(client, conn);
+					else if (action.equals("mirror"))
+						invalidateClient = !actionMirror(client, conn);
 					else if (action.equals("rename"))
 						actionRename(client);
 					else if (action.equals("remove"))
@@ -234,25 +353,52 @@ public final class Ftp extends TagImpl {
 						throw eng().getExceptionUtil().createApplicationException(
 								"Tag [ftp] attribute [action] has an invalid value [" + action + "]",
 								"valid values are [open, close, listDir, createDir, removeDir, changeDir, getCurrentDir, "
-										+ "getCurrentURL, existsFile, existsDir, exists, getFile, putFile, quote, rename, remove]");
+										+ "getCurrentURL, existsFile, existsDir, exists, getFile, putFile, getFiles, putFiles, mirror, quote, "
+										+ "rename, remove]");
 
 				} catch (IOException ioe) {
-					if (count++ < retrycount)
+					// the connection was handed out without a probe and was dropped while idle, this does not
+					// count as a retry, we simply continue with a fresh connection
+					if (pooledClient.isUnverified()) {
+						PooledFTPClient dead = pooledClient;
+						pooledClient = null;
+						if (pinned)
+							pool.unpin(pageContext, dead);
+						pool.invalidateClient(dead);
+						pooledClient = pool.borrowClient(conn);
+						if (pinned)
+							pool.pin(pageContext, pooledClient);
+						continue;
+					}
+					if (count++ < retrycount) {
+						backoff(count);
 						continue;
+					}
 					throw eng().getCastUtil().toPageException(ioe);
 				}
+				pooledClient.markSuccess();
 
-				if (client == null || !checkCompletion(client))
+				// a batch reports the outcome of every file itself
+				if (client == null || isBatch() || !checkCompletion(client))
 					break;
+				// a negative reply (f.e. 421 or 450) waits like a failed connection
+				backoff(count);
 			} while (true);
+			failed = false;
 
 		} catch (IOException ioe) {
 			throw eng().getCastUtil().toPageException(ioe);
 		} finally {
 			if (pooledClient != null) {
+				PoolMetrics metrics = pooledClient.getMetrics();
+				if (metrics != null)
+					metrics.recordAction(action, System.currentTimeMillis() - start, transferred, failed);
+				// a pinned client stays with the request, unless the tag failed or closed it
+				if (pinned && (invalidateClient || failed))
+					pinned = !pool.unpin(pageContext, pooledClient);
 				if (invalidateClient) {
 					pool.invalidateClient(pooledClient); // Destroy instead of return
-				} else {
+				} else if (!pinned) {
 					pool.returnClient(pooledClient); // Normal return
 				}
 			}
@@ -435,7 +581,7 @@ public final class Ftp extends TagImpl {
 	 * @throws IOException
 	 * @throws PageException
 	 */
-	private void actionPutFile(AFTPClient client) throws IOException, PageException {
+	private void actionPutFile(AFTPClient client, FTPConnection conn) throws IOException, PageException {
 		required("remotefile", remotefile);
 		required("localfile", localfile);
 
@@ -446,10 +592,46 @@ public final class Ftp extends TagImpl {
 		// failIfExists to false");
 		InputStream is = null;
 
+		int type = getType(local);
+		client.setFileType(type);
+		boolean binary = type == AFTPClient.FILE_TYPE_BINARY;
+
+		// continue the upload of an earlier attempt, the remote file is taken as the start of the local one
+		long offset = 0;
+		if (resume && binary) {
+			long size = client.getSize(remotefile);
+			if (size == local.length()) {
+				writeCfftp(client);
+				return;
+			}
+			if (size > 0 && size < local.length()) {
+				offset = size;
+				// the offset of a compressed transfer is not well defined
+				client.setCompression(false);
+			}
+		}
+		// large binary files are uploaded in segments over several connections, if the server supports it
+		else if (parallel > 1 && binary && local instanceof File && SegmentedTransfer.upload(conn, client,
+				absolutePath(client, remotefile), (File) local, parallel)) {
+			transferred = local.length();
+			writeCfftp(client);
+			return;
+		}
+		// a local file can be sent without copying it through the heap
+		if (offset == 0 && local instanceof File) {
+			if (client.storeFile(remotefile, (File) local))
+				transferred = local.length();
+			writeCfftp(client);
+			return;
+		}
 		try {
 			is = eng().getIOUtil().toBufferedInputStream(local.getInputStream());
-			client.setFileType(getType(local));
-			client.storeFile(remotefile, is);
+			if (offset > 0) {
+				skip(is, offset);
+				if (client.storeFile(remotefile, is, offset))
+					transferred = local.length() - offset;
+			} else if (client.storeFile(remotefile, is))
+				transferred = local.length();
 		} finally {
 			eng().getIOUtil().closeSilent(is);
 		}
@@ -463,29 +645,355 @@ public final class Ftp extends TagImpl {
 	 * @throws PageException
 	 * @throws IOException
 	 */
-	private void actionGetFile(AFTPClient client) throws PageException, IOException {
+	private void actionGetFile(AFTPClient client, FTPConnection conn) throws PageException, IOException {
 		required("remotefile", remotefile);
 		required("localfile", localfile);
 
 		Resource local = eng().getResourceUtil().toResourceExistingParent(pageContext, localfile);
 		pageContext.getConfig().getSecurityManager().checkFileLocation(local);
-		if (failifexists && local.exists())
+		// with resume an existing file is the part an earlier attempt downloaded
+		if (failifexists && !resume && local.exists())
 			throw eng().getExceptionUtil().createApplicationException("FTP File [" + local
 					+ "] already exists, if you want to overwrite, set attribute [failIfExists] to false");
 		OutputStream fos = null;
-		client.setFileType(getType(local));
+		int type = getType(local);
+		client.setFileType(type);
+		boolean binary = type == AFTPClient.FILE_TYPE_BINARY;
 		boolean success = false;
+		long offset = 0;
 		try {
-			fos = eng().getIOUtil().toBufferedOutputStream(local.getOutputStream());
-			success = client.retrieveFile(remotefile, fos);
+			long size = -1;
+			if (resume && binary) {
+				// continue the download of an earlier attempt
+				offset = local.exists() ? local.length() : 0;
+				if (offset > 0) {
+					size = client.getSize(remotefile);
+					if (size >= 0 && offset > size)
+						offset = 0; // not a part of the remote file
+				}
+			}
+			// large binary files are downloaded in segments over several connections
+			else if (parallel > 1 && binary && local instanceof File)
+				size = client.getSize(remotefile);
+
+			if (offset > 0 && offset == size) {
+				success = true;
+			} else if (offset > 0) {
+				// the offset of a compressed transfer is not well defined
+				client.setCompression(false);
+				fos = eng().getIOUtil().toBufferedOutputStream(local.getOutputStream(true));
+				success = client.retrieveFile(remotefile, fos, offset, -1);
+			} else if (!resume && SegmentedTransfer.segments(size, parallel) > 1) {
+				SegmentedTransfer.download(conn, client, absolutePath(client, remotefile), size, (File) local, parallel);
+				success = true;
+			} else {
+				fos = eng().getIOUtil().toBufferedOutputStream(local.getOutputStream());
+				success = client.retrieveFile(remotefile, fos);
+			}
 		} finally {
 			eng().getIOUtil().closeSilent(fos);
-			if (!success)
+			// with resume the part already downloaded is kept for the next attempt
+			if (!success && !resume)
 				local.delete();
 		}
+		transferred = Math.max(0, local.length() - offset);
 		writeCfftp(client);
 	}
 
+	/**
+	 * downloads several files into a local directory, over several connections at the same time
+	 *
+	 * @return false if the client is broken
+	 */
+	private boolean actionGetFiles(AFTPClient client, FTPConnection conn) throws PageException, IOException {
+		required("remoteFiles", remoteFiles);
+		required("localDirectory", localDirectory);
+
+		Resource dir = eng().getResourceUtil().toResourceExisting(pageContext, localDirectory);
+		pageContext.getConfig().getSecurityManager().checkFileLocation(dir);
+		if (!dir.isDirectory())
+			throw eng().getExceptionUtil().createApplicationException("[" + dir + "] is not a directory");
+
+		List<BatchTransfer.Item> items = new ArrayList<>();
+		Set<String> names = new HashSet<>();
+		for (String path: toList(remoteFiles)) {
+			int index = path.lastIndexOf('/');
+			String parent = index == -1 ? "" : path.substring(0, index + 1);
+			String name = path.substring(index + 1);
+			List<String> matches = new ArrayList<>();
+			if (isGlob(name)) {
+				Pattern pattern = globToPattern(name);
+				FTPFile[] files = client.listFiles(parent.isEmpty() ? "." : parent);
+				if (files != null) {
+					for (FTPFile file: files) {
+						if (file != null && file.isFile() && pattern.matcher(file.getName()).matches())
+							matches.add(file.getName());
+					}
+				}
+			} else
+				matches.add(name);
+
+			for (String match: matches) {
+				Resource local = dir.getRealResource(match);
+				BatchTransfer.Item item = new BatchTransfer.Item(match, absolutePath(client, parent + match), local);
+				if (!names.add(match))
+					item.fail("another file with the name [" + match + "] is downloaded already");
+				else if (failifexists && local.exists())
+					item.fail("local file [" + local + "] already exists");
+				items.add(item);
+			}
+		}
+
+		return batch(client, conn, items, downloadTask());
+	}
+
+	/**
+	 * uploads several local files into a remote directory, over several connections at the same time
+	 *
+	 * @return false if the client is broken
+	 */
+	private boolean actionPutFiles(AFTPClient client, FTPConnection conn) throws PageException, IOException {
+		required("localFiles", localFiles);
+
+		String remoteDir = Util.isEmpty(directory, true) ? "" : directory.trim();
+		if (!remoteDir.isEmpty() && !remoteDir.endsWith("/"))
+			remoteDir += "/";
+		// the working directory of the borrowed clients may differ
+		remoteDir = absolutePath(client, remoteDir);
+
+		List<BatchTransfer.Item> items = new ArrayList<>();
+		Set<String> names = new HashSet<>();
+		for (String path: toList(localFiles)) {
+			List<Resource> matches = new ArrayList<>();
+			Resource res = eng().getResourceUtil().toResourceNotExisting(pageContext, path);
+			if (isGlob(res.getName())) {
+				Pattern pattern = globToPattern(res.getName());
+				Resource parent = res.getParentResource();
+				Resource[] children = parent == null ? null : parent.listResources();
+				if (children != null) {
+					for (Resource child: children) {
+						if (child.isFile() && pattern.matcher(child.getName()).matches())
+							matches.add(child);
+					}
+				}
+			} else
+				matches.add(res);
+
+			for (Resource local: matches) {
+				pageContext.getConfig().getSecurityManager().checkFileLocation(local);
+				BatchTransfer.Item item = new BatchTransfer.Item(local.getName(), remoteDir + local.getName(), local);
+				if (!names.add(local.getName()))
+					item.fail("another file with the name [" + local.getName() + "] is uploaded already");
+				else if (!local.isFile())
+					item.fail("local file [" + local + "] does not exist");
+				items.add(item);
+			}
+		}
+
+		return batch(client, conn, items, uploadTask());
+	}
+
+	/**
+	 * copies a directory tree from the server into a local directory or the other way around, files
+	 * that did not change are skipped
+	 *
+	 * @return false if the client is broken
+	 */
+	private boolean actionMirror(AFTPClient client, FTPConnection conn) throws PageException, IOException {
+		required("directory", directory);
+		required("localDirectory", localDirectory);
+
+		Resource dir;
+		if (download)
+			dir = eng().getResourceUtil().toResourceNotExisting(pageContext, localDirectory);
+		else {
+			dir = eng().getResourceUtil().toResourceExisting(pageContext, localDirectory);
+			if (!dir.isDirectory())
+				throw eng().getExceptionUtil().createApplicationException("[" + dir + "] is not a directory");
+		}
+		pageContext.getConfig().getSecurityManager().checkFileLocation(dir);
+
+		long start = System.currentTimeMillis();
+		Mirror.Result r = Mirror.run(conn, client, absolutePath(client, directory.trim()), dir, download, parallel,
+				retrycount, download ? downloadTask() : uploadTask());
+
+		Map<Key, Object> totals = new LinkedHashMap<>();
+		totals.put(SKIPPED, Double.valueOf(r.getSkipped()));
+		totals.put(DIRECTORIES, Double.valueOf(r.getDirectories()));
+		writeBatchResult(client, r.getItems(), r.getFiles(), System.currentTimeMillis() - start, totals);
+		return r.isClientOk();
+	}
+
+	/**
+	 * transfers the items, writes the outcome of every file into the query [name] and the totals into
+	 * cfftp
+	 *
+	 * @return false if the client is broken
+	 */
+	private boolean batch(AFTPClient client, FTPConnection conn, List<BatchTransfer.Item> items, BatchTransfer.Task task)
+			throws PageException {
+		long start = System.currentTimeMillis();
+		boolean ok = BatchTransfer.run(conn, client, items, parallel, retrycount, task);
+		writeBatchResult(client, items, items.size(), System.currentTimeMillis() - start, null);
+		return ok;
+	}
+
+	/**
+	 * @return downloads the remote file of an item into its local file
+	 */
+	private BatchTransfer.Task downloadTask() {
+		return (c, item) -> {
+			Resource local = (Resource) item.getLocal();
+			prepareBatchClient(c);
+			c.setFileType(getType(local));
+			boolean success = false;
+			try {
+				boolean retrieved;
+				try (OutputStream os = eng().getIOUtil().toBufferedOutputStream(local.getOutputStream())) {
+					retrieved = c.retrieveFile(item.getRemote(), os);
+				}
+				success = retrieved;
+			} finally {
+				if (!success)
+					local.delete();
+			}
+			if (success)
+				item.setLength(local.length());
+			return success;
+		};
+	}
+
+	/**
+	 * @return uploads the local file of an item to its remote file
+	 */
+	private BatchTransfer.Task uploadTask() {
+		return (c, item) -> {
+			Resource local = (Resource) item.getLocal();
+			prepareBatchClient(c);
+			c.setFileType(getType(local));
+			boolean success;
+			if (local instanceof File)
+				success = c.storeFile(item.getRemote(), (File) local);
+			else {
+				try (InputStream is = eng().getIOUtil().toBufferedInputStream(local.getInputStream())) {
+					success = c.storeFile(item.getRemote(), is);
+				}
+			}
+			if (success)
+				item.setLength(local.length());
+			return success;
+		};
+	}
+
+	/**
+	 * writes the outcome of every item into the query [name] and the totals into cfftp, with
+	 * stopOnError it throws if an item failed
+	 *
+	 * @param files
+	 *            the number of files the totals are about
+	 * @param totals
+	 *            additional totals for cfftp, may be null
+	 */
+	private void writeBatchResult(AFTPClient client, Collection<BatchTransfer.Item> items, long files, long time,
+			Map<Key, Object> totals) throws PageException {
+		lucee.runtime.type.Query query = eng().getCreationUtil().createQuery(
+				new String[] { "name", "remotePath", "localPath", "succeeded", "length", "time", "attempts", "error" },
+				new String[] { "VARCHAR", "VARCHAR", "VARCHAR", "BOOLEAN", "DOUBLE", "DOUBLE", "DOUBLE", "VARCHAR" }, 0,
+				"query");
+		long bytes = 0;
+		int failed = 0;
+		BatchTransfer.Item firstFailed = null;
+		for (BatchTransfer.Item item: items) {
+			int row = query.addRow();
+			query.setAt("name", row, item.getName());
+			query.setAt("remotePath", row, item.getRemote());
+			query.setAt("localPath", row, item.getLocal().toString());
+			query.setAt("succeeded", row, eng().getCastUtil().toBoolean(item.isSucceeded()));
+			query.setAt("length", row, Double.valueOf(item.getLength()));
+			query.setAt("time", row, Double.valueOf(item.getTime()));
+			query.setAt("attempts", row, Double.valueOf(item.getAttempts()));
+			query.setAt("error", row, item.getError() == null ? "" : item.getError());
+			if (item.isSucceeded())
+				bytes += item.getLength();
+			else if (failed++ == 0)
+				firstFailed = item;
+		}
+		if (name != null)
+			pageContext.setVariable(name, query);
+		transferred = bytes;
+
+		Struct cfftp = writeCfftp(client);
+		cfftp.setEL(SUCCEEDED, eng().getCastUtil().toBoolean(failed == 0));
+		if (failed > 0)
+			cfftp.setEL(ERROR_TEXT, "[" + failed + "] of [" + files + "] files failed");
+		cfftp.setEL(RETURN_VALUE, Double.valueOf(items.size() - failed));
+		cfftp.setEL(FILES, Double.valueOf(files));
+		cfftp.setEL(FAILED, Double.valueOf(failed));
+		cfftp.setEL(BYTES, Double.valueOf(bytes));
+		cfftp.setEL(TIME, Double.valueOf(time));
+		cfftp.setEL(BYTES_PER_SECOND, Double.valueOf(time > 0 ? bytes * 1000d / time : 0));
+		if (totals != null) {
+			for (Map.Entry<Key, Object> e: totals.entrySet())
+				cfftp.setEL(e.getKey(), e.getValue());
+		}
+
+		if (failed > 0 && stoponerror)
+			throw eng().getExceptionUtil().createApplicationException("[" + failed + "] of [" + files
+					+ "] files failed, [" + firstFailed.getName() + "]: " + firstFailed.getError());
+	}
+
+	/**
+	 * the borrowed clients of a batch have not been set up by this tag
+	 */
+	private void prepareBatchClient(AFTPClient client) throws IOException {
+		client.setControlKeepAlive(keepAlive);
+		client.setCompression(compress);
+	}
+
+	private boolean isBatch() {
+		return action.equals("getfiles") || action.equals("putfiles") || action.equals("mirror");
+	}
+
+	/**
+	 * @return the values of an array or a comma separated list
+	 */
+	private List<String> toList(Object value) throws PageException {
+		List<String> list = new ArrayList<>();
+		Object[] values = eng().getDecisionUtil().isArray(value) ? eng().getCastUtil().toNativeArray(value)
+				: eng().getCastUtil().toString(value).split(",");
+		for (Object v: values) {
+			String str = eng().getCastUtil().toString(v).trim();
+			if (!str.isEmpty())
+				list.add(str);
+		}
+		return list;
+	}
+
+	private static boolean isGlob(String name) {
+		return name.indexOf('*') != -1 || name.indexOf('?') != -1;
+	}
+
+	/**
+	 * "*" matches any number of characters, "?" a single one, the match ignores the case
+	 */
+	private static Pattern globToPattern(String glob) {
+		StringBuilder sb = new StringBuilder();
+		StringBuilder literal = new StringBuilder();
+		for (char c: glob.toCharArray()) {
+			if (c == '*' || c == '?') {
+				if (literal.length() > 0) {
+					sb.append(Pattern.quote(literal.toString()));
+					literal.setLength(0);
+				}
+				sb.append(c == '*' ? ".*" : ".");
+			} else
+				literal.append(c);
+		}
+		if (literal.length() > 0)
+			sb.append(Pattern.quote(literal.toString()));
+		return Pattern.compile(sb.toString(), Pattern.CASE_INSENSITIVE);
+	}
+
 	/**
 	 * get url of the working directory
 	 * 
@@ -648,14 +1156,31 @@ public final class Ftp extends TagImpl {
 	 * @throws IOException
 	 * @throws PageException
 	 */
-	private void actionOpen(AFTPClient client) throws IOException, PageException {
+	private void actionOpen(AFTPClient client, FTPConnection conn) throws IOException, PageException {
 		required("server", server);
 		required("username", username);
 		// required("password", password);
 
+		// open the remaining connections of a warm pool in the background
+		pool.warmUp(conn);
 		writeCfftp(client);
 	}
 
+	/**
+	 * waits before the next retry, the wait doubles with every attempt (200ms, 400ms, ... at most 5s),
+	 * with some jitter, so retries of many requests do not hit the server at the same time
+	 */
+	private static void backoff(int attempt) throws IOException {
+		long wait = Math.min(5000L, 200L << Math.min(attempt - 1, 5));
+		wait += ThreadLocalRandom.current().nextLong(wait / 2 + 1);
+		try {
+			Thread.sleep(wait);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while waiting for the next attempt");
+		}
+	}
+
 	/**
 	 * close an existing ftp connection
 	 * 
@@ -699,7 +1224,7 @@ public final class Ftp extends TagImpl {
 	 * @param atttributValue
 	 * @throws ApplicationException
 	 */
-	private void required(String attributeName, String atttributValue) throws PageException {
+	private void required(String attributeName, Object atttributValue) throws PageException {
 		if (atttributValue == null)
 			throw eng().getExceptionUtil().createApplicationException(
 					"Invalid combination of attributes for the tag [ftp]",
@@ -760,6 +1285,33 @@ public final class Ftp extends TagImpl {
 		return false;
 	}
 
+	/**
+	 * skips the given number of bytes of the stream
+	 */
+	private static void skip(InputStream is, long n) throws IOException {
+		while (n > 0) {
+			long skipped = is.skip(n);
+			if (skipped <= 0) {
+				if (is.read() == -1)
+					throw new IOException("unexpected end of the local file");
+				skipped = 1;
+			}
+			n -= skipped;
+		}
+	}
+
+	/**
+	 * @return the path relative to the working directory of the client as absolute path
+	 */
+	private static String absolutePath(AFTPClient client, String path) throws IOException {
+		if (path.startsWith("/"))
+			return path;
+		String pwd = client.printWorkingDirectory();
+		if (pwd == null)
+			return path;
+		return pwd.endsWith("/") ? pwd + path : pwd + "/" + path;
+	}
+
 	/**
 	 * get FTP. ... _FILE_TYPE
 	 * 
@@ -785,7 +1337,10 @@ public final class Ftp extends TagImpl {
 	private FTPConnection _createConnection() {
 		return new FTPConnectionImpl(connectionName, server, username, password, getPort(), timeout, transferMode,
 				passive, proxyserver, proxyport, proxyuser, proxypassword, fingerprint, stoponerror, secure, key,
-				passphrase);
+				passphrase, new PoolSettings(poolMaxTotal, poolMaxIdle, poolMinIdle, poolMaxWait, poolIdleTimeout,
+						poolLiveTimeout, poolValidationWindow),
+				new SocketSettings(bufferSize, socketBufferSize, tcpNoDelay),
+				new SSHSettings(sshCompression, ciphers, macs, kex, bulkRequests, windowSize, packetSize));
 	}
 
 	/**
@@ -1039,4 +1594,240 @@ public final class Ftp extends TagImpl {
 	public void setActionparam(String actionParam) {
 		this.actionParams = actionParam;
 	}
+
+	/**
+	 * @param poolMaxTotal
+	 *            max number of connections held by the pool of this connection
+	 */
+	public void setPoolmaxtotal(double poolMaxTotal) {
+		this.poolMaxTotal = (int) poolMaxTotal;
+	}
+
+	/**
+	 * @param poolMaxIdle
+	 *            max number of idle connections kept by the pool of this connection
+	 */
+	public void setPoolmaxidle(double poolMaxIdle) {
+		this.poolMaxIdle = (int) poolMaxIdle;
+	}
+
+	/**
+	 * @param poolMinIdle
+	 *            number of connections the pool opens in advance and keeps open
+	 */
+	public void setPoolminidle(double poolMinIdle) {
+		this.poolMinIdle = (int) poolMinIdle;
+	}
+
+	/**
+	 * @param poolMaxWait
+	 *            max time in seconds to wait for a free connection
+	 */
+	public void setPoolmaxwait(double poolMaxWait) {
+		this.poolMaxWait = toMillis(poolMaxWait);
+	}
+
+	/**
+	 * @param poolIdleTimeout
+	 *            time in seconds an unused connection is kept open
+	 */
+	public void setPoolidletimeout(double poolIdleTimeout) {
+		this.poolIdleTimeout = toMillis(poolIdleTimeout);
+	}
+
+	/**
+	 * @param poolLiveTimeout
+	 *            time in seconds a connection is used before it is replaced
+	 */
+	public void setPoollivetimeout(double poolLiveTimeout) {
+		this.poolLiveTimeout = toMillis(poolLiveTimeout);
+	}
+
+	/**
+	 * @param poolValidationWindow
+	 *            time in seconds a connection that completed a command is handed out without probing it
+	 */
+	public void setPoolvalidationwindow(double poolValidationWindow) {
+		this.poolValidationWindow = toMillis(poolValidationWindow);
+	}
+
+	/**
+	 * @param requestAffinity
+	 *            if true the connection stays with the request, the following ftp tags of the request
+	 *            with the same connection use the same session (and working directory), it is returned to
+	 *            the pool when the request ends
+	 */
+	public void setRequestaffinity(boolean requestAffinity) {
+		this.requestAffinity = requestAffinity;
+	}
+
+	/**
+	 * @param keepAlive
+	 *            interval in seconds to send a keepalive over the control connection while a transfer
+	 *            runs, so firewalls do not drop it as idle, 0 to disable
+	 */
+	public void setKeepalive(double keepAlive) {
+		this.keepAlive = Math.max(0, (int) keepAlive);
+	}
+
+	/**
+	 * @param parallel
+	 *            number of connections a large file is transferred over at the same time, 1 to use a
+	 *            single connection
+	 */
+	public void setParallel(double parallel) {
+		this.parallel = Math.max(1, (int) parallel);
+	}
+
+	/**
+	 * @param resume
+	 *            if true getFile continues an existing local file and putFile an existing remote file,
+	 *            instead of transferring the file from the start
+	 */
+	public void setResume(boolean resume) {
+		this.resume = resume;
+	}
+
+	/**
+	 * @param bufferSize
+	 *            size in bytes of the buffer used to copy the data of a transfer
+	 */
+	public void setBuffersize(double bufferSize) {
+		this.bufferSize = (int) bufferSize;
+	}
+
+	/**
+	 * @param socketBufferSize
+	 *            send and receive buffer size in bytes of the data connections, 0 for the OS default
+	 */
+	public void setSocketbuffersize(double socketBufferSize) {
+		this.socketBufferSize = (int) socketBufferSize;
+	}
+
+	/**
+	 * @param tcpNoDelay
+	 *            disable Nagle's algorithm (TCP_NODELAY) on the control and data connections
+	 */
+	public void setTcpnodelay(boolean tcpNoDelay) {
+		this.tcpNoDelay = tcpNoDelay;
+	}
+
+	/**
+	 * @param compress
+	 *            transfer the files of getFile and putFile compressed (MODE Z), if the server supports it
+	 */
+	public void setCompress(boolean compress) {
+		this.compress = compress;
+	}
+
+	/**
+	 * @param sshCompression
+	 *            compress the SFTP session with zlib, if the server supports it
+	 */
+	public void setSshcompression(boolean sshCompression) {
+		this.sshCompression = sshCompression;
+	}
+
+	/**
+	 * @param ciphers
+	 *            comma separated list of the ciphers an SFTP session may use, in order of preference
+	 */
+	public void setCiphers(String ciphers) {
+		this.ciphers = ciphers;
+	}
+
+	/**
+	 * @param macs
+	 *            comma separated list of the MACs an SFTP session may use, in order of preference
+	 */
+	public void setMacs(String macs) {
+		this.macs = macs;
+	}
+
+	/**
+	 * @param kex
+	 *            comma separated list of the key exchange algorithms an SFTP session may use, in order
+	 *            of preference
+	 */
+	public void setKex(String kex) {
+		this.kex = kex;
+	}
+
+	/**
+	 * @param remoteFiles
+	 *            array or comma separated list of the remote files getFiles downloads, the names may
+	 *            contain the wildcards "*" and "?"
+	 */
+	public void setRemotefiles(Object remoteFiles) {
+		this.remoteFiles = remoteFiles;
+	}
+
+	/**
+	 * @param localFiles
+	 *            array or comma separated list of the local files putFiles uploads, the names may
+	 *            contain the wildcards "*" and "?"
+	 */
+	public void setLocalfiles(Object localFiles) {
+		this.localFiles = localFiles;
+	}
+
+	/**
+	 * @param localDirectory
+	 *            the directory getFiles downloads the files into
+	 */
+	public void setLocaldirectory(String localDirectory) {
+		this.localDirectory = localDirectory;
+	}
+
+	/**
+	 * @param direction
+	 *            the direction of action mirror, "download" (default) or "upload"
+	 */
+	public void setDirection(String direction) throws PageException {
+		direction = direction.trim().toLowerCase();
+		if (direction.equals("download"))
+			this.download = true;
+		else if (direction.equals("upload"))
+			this.download = false;
+		else
+			throw eng().getExceptionUtil().createApplicationException(
+					"Tag [ftp] attribute [direction] has an invalid value [" + direction + "]",
+					"valid values are [download, upload]");
+	}
+
+	/**
+	 * @param bulkRequests
+	 *            number of read/write requests an SFTP transfer keeps outstanding, "adaptive" to raise
+	 *            it as long as the throughput improves
+	 * @throws PageException
+	 */
+	public void setBulkrequests(String bulkRequests) throws PageException {
+		if (Util.isEmpty(bulkRequests, true))
+			return;
+		if ("adaptive".equalsIgnoreCase(bulkRequests.trim()))
+			this.bulkRequests = SSHSettings.BULK_REQUESTS_ADAPTIVE;
+		else
+			this.bulkRequests = Math.max(1, eng().getCastUtil().toIntValue(bulkRequests.trim()));
+	}
+
+	/**
+	 * @param windowSize
+	 *            size in bytes of the receive window of the SFTP channel, 0 for the default
+	 */
+	public void setWindowsize(double windowSize) {
+		this.windowSize = (int) windowSize;
+	}
+
+	/**
+	 * @param packetSize
+	 *            maximum size in bytes of the packets the server sends on the SFTP channel, 0 for the
+	 *            default
+	 */
+	public void setPacketsize(double packetSize) {
+		this.packetSize = (int) packetSize;
+	}
+
+	private static long toMillis(double seconds) {
+		return seconds < 0 ? -1 : (long) (seconds * 1000);
+	}
 }
\ No newline at end of file
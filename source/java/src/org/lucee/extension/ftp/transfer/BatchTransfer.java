@@ -0,0 +1,316 @@
+package org.lucee.extension.ftp.transfer;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.lucee.extension.ftp.AFTPClient;
+import org.lucee.extension.ftp.FTPConnection;
+import org.lucee.extension.ftp.FTPWrap;
+import org.lucee.extension.ftp.pool.FTPConnectionPool;
+import org.lucee.extension.ftp.pool.PooledFTPClient;
+import org.lucee.extension.ftp.util.LogUtil;
+
+import lucee.commons.io.log.Log;
+
+/**
+ * Transfers many files over several connections at the same time, every connection transfers one
+ * file after the other. Works like {@link SegmentedTransfer}: the caller's client starts right away,
+ * the other clients are borrowed from the pool in the background and join as soon as they are handed
+ * out.
+ *
+ * A file that fails with a broken connection or a transient reply (4xx) is tried again, up to the
+ * given number of retries, the connection is reopened before it goes on. A file that fails for good
+ * does not stop the others.
+ */
+public final class BatchTransfer {
+
+	private static final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+		Thread t = new Thread(r, "ftp-batch-transfer");
+		t.setDaemon(true);
+		return t;
+	});
+
+	private BatchTransfer() {
+	}
+
+	/**
+	 * transfers the items, the outcome of every transfer is stored in its item
+	 *
+	 * @param parallel
+	 *            number of connections used at most, including the caller's one
+	 * @param retryCount
+	 *            how often a failed file is tried again
+	 * @return false if the caller's client is broken and should not be used anymore
+	 */
+	public static boolean run(FTPConnection conn, AFTPClient client, List<Item> items, int parallel, int retryCount,
+			Task task) {
+		Worker worker = new Worker(conn, items, retryCount, task);
+
+		for (int i = Math.min(parallel, items.size()); i > 1; i--) {
+			executor.execute(() -> {
+				if (!worker.hasWork())
+					return;
+				FTPConnectionPool pool = FTPConnectionPool.getInstance();
+				PooledFTPClient pooled;
+				try {
+					pooled = pool.borrowClient(conn);
+				} catch (Exception e) {
+					LogUtil.log(Log.LEVEL_DEBUG, "no additional connection for a batch transfer: " + e.getMessage());
+					return;
+				}
+				boolean ok = false;
+				try {
+					ok = worker.work(pooled.getClient());
+				} finally {
+					if (ok) {
+						pooled.markSuccess();
+						pool.returnClient(pooled);
+					} else
+						pool.invalidateClient(pooled);
+				}
+			});
+		}
+
+		boolean ok = worker.work(client);
+		worker.await();
+		return ok;
+	}
+
+	/**
+	 * transfers the item once and records the outcome in it, an unchecked exception of the task fails the
+	 * item
+	 *
+	 * @return true if the connection broke or is in an unknown state
+	 */
+	static boolean attempt(AFTPClient client, Item item, Task task) {
+		item.countAttempt();
+		long start = System.currentTimeMillis();
+		try {
+			if (task.transfer(client, item)) {
+				item.succeeded = true;
+				item.error = null;
+			} else {
+				String reply = client.getReplyString();
+				item.error = reply == null ? "failed" : reply.trim();
+				// 4xx, the server may accept it later
+				int code = client.getReplyCode();
+				item.retryable = code >= 400 && code < 500;
+			}
+			return false;
+		} catch (IOException e) {
+			item.error = e.getMessage() == null ? e.getClass().getName() : e.getMessage();
+			item.retryable = true;
+			return true;
+		} catch (RuntimeException e) {
+			// the worker must go on, or the item is never done; the state of the connection is unknown
+			item.error = e.getMessage() == null ? e.getClass().getName() : e.getMessage();
+			item.retryable = false;
+			LogUtil.log(Log.LEVEL_ERROR, e);
+			return true;
+		} finally {
+			item.time += System.currentTimeMillis() - start;
+		}
+	}
+
+	/**
+	 * reopens a broken connection
+	 *
+	 * @return false if that failed
+	 */
+	static boolean reconnect(AFTPClient client, FTPConnection conn) {
+		try {
+			client.disconnect();
+		} catch (IOException e) {
+			// it is broken anyway
+		}
+		try {
+			// a disconnect resets the settings (f.e. passive mode)
+			FTPWrap.setConnectionSettings(client, conn);
+			client.connect();
+			return true;
+		} catch (IOException e) {
+			LogUtil.log(Log.LEVEL_DEBUG, "failed to reopen a connection of a batch transfer: " + e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * transfers a single file
+	 */
+	public interface Task {
+		/**
+		 * @return false if the server refused the transfer, the reply of the client tells why
+		 */
+		public boolean transfer(AFTPClient client, Item item) throws IOException;
+	}
+
+	/**
+	 * a file to transfer and the outcome of its transfer
+	 */
+	public static final class Item {
+
+		private final String name;
+		private final String remote;
+		private final Object local;
+		private volatile boolean succeeded;
+		private volatile long length;
+		private volatile long time;
+		private volatile int attempts;
+		private volatile String error;
+		private volatile boolean retryable;
+
+		/**
+		 * @param name
+		 *            name of the file
+		 * @param remote
+		 *            absolute path of the remote file, the borrowed clients may have another working
+		 *            directory than the caller's
+		 * @param local
+		 *            the local file
+		 */
+		public Item(String name, String remote, Object local) {
+			this.name = name;
+			this.remote = remote;
+			this.local = local;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getRemote() {
+			return remote;
+		}
+
+		public Object getLocal() {
+			return local;
+		}
+
+		public boolean isSucceeded() {
+			return succeeded;
+		}
+
+		/**
+		 * @return the number of bytes transferred
+		 */
+		public long getLength() {
+			return length;
+		}
+
+		/**
+		 * @return the time in milliseconds the transfers of the file took, all attempts together
+		 */
+		public long getTime() {
+			return time;
+		}
+
+		public int getAttempts() {
+			return attempts;
+		}
+
+		/**
+		 * @return why the file failed, null if it did not
+		 */
+		public String getError() {
+			return error;
+		}
+
+		/**
+		 * marks the item as failed before it is transferred, f.e. because the local file already exists
+		 */
+		public void fail(String error) {
+			this.succeeded = false;
+			this.error = error;
+		}
+
+		/**
+		 * @param length
+		 *            the number of bytes transferred
+		 */
+		public void setLength(long length) {
+			this.length = length;
+		}
+
+		void countAttempt() {
+			attempts++;
+		}
+
+		/**
+		 * @return true if the last attempt failed in a way worth another one
+		 */
+		boolean retry(int retryCount) {
+			return !succeeded && error != null && retryable && attempts <= retryCount;
+		}
+	}
+
+	private static final class Worker {
+
+		private final FTPConnection conn;
+		private final Queue<Item> items = new ConcurrentLinkedDeque<>();
+		private final int retryCount;
+		private final Task task;
+		private final CountDownLatch done;
+		private final AtomicInteger active = new AtomicInteger();
+
+		private Worker(FTPConnection conn, List<Item> items, int retryCount, Task task) {
+			this.conn = conn;
+			for (Item item: items) {
+				if (item.error == null)
+					this.items.add(item);
+			}
+			this.retryCount = retryCount;
+			this.task = task;
+			this.done = new CountDownLatch(this.items.size());
+		}
+
+		/**
+		 * transfers files with the given client until none are left
+		 *
+		 * @return false if the client broke and could not be reopened
+		 */
+		private boolean work(AFTPClient client) {
+			active.incrementAndGet();
+			try {
+				Item item;
+				while ((item = items.poll()) != null) {
+					boolean broken = attempt(client, item, task);
+					if (item.retry(retryCount))
+						items.add(item);
+					else
+						done.countDown();
+					if (broken && !reconnect(client, conn))
+						return false;
+				}
+				return true;
+			} finally {
+				// nobody is left to transfer what another client gave back
+				if (active.decrementAndGet() == 0) {
+					Item item;
+					while ((item = items.poll()) != null) {
+						if (item.error == null)
+							item.error = "no connection left to transfer the file";
+						done.countDown();
+					}
+				}
+			}
+		}
+
+		private boolean hasWork() {
+			return !items.isEmpty();
+		}
+
+		private void await() {
+			try {
+				done.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
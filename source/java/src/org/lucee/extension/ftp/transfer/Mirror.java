@@ -0,0 +1,499 @@
+package org.lucee.extension.ftp.transfer;
+
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.net.ftp.FTPFile;
+import org.lucee.extension.ftp.AFTPClient;
+import org.lucee.extension.ftp.FTPConnection;
+import org.lucee.extension.ftp.pool.FTPConnectionPool;
+import org.lucee.extension.ftp.pool.PooledFTPClient;
+import org.lucee.extension.ftp.transfer.BatchTransfer.Item;
+import org.lucee.extension.ftp.transfer.BatchTransfer.Task;
+import org.lucee.extension.ftp.util.LogUtil;
+
+import lucee.commons.io.log.Log;
+import lucee.commons.io.res.Resource;
+
+/**
+ * Copies a directory tree from the server to a local directory (download) or the other way around
+ * (upload). A file is transferred if it is missing on the other side, has another size or is newer
+ * there, the copy gets the modification time of the source where the target supports it. Nothing is
+ * deleted.
+ *
+ * The tree is walked while it is transferred: the connections list directories and transfer files
+ * from the same queues, one directory at a time, so only the files waiting for a transfer and the
+ * directory being listed are held in memory, no matter how large the tree is. Directories are only
+ * listed while less than {@value #MAX_QUEUED_FILES} files wait. Like {@link BatchTransfer}, the
+ * caller's client starts right away and the other clients are borrowed from the pool.
+ */
+public final class Mirror {
+
+	private static final int MAX_QUEUED_FILES = 1000;
+
+	private static final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+		Thread t = new Thread(r, "ftp-mirror");
+		t.setDaemon(true);
+		return t;
+	});
+
+	private final FTPConnection conn;
+	private final boolean download;
+	private final int retryCount;
+	private final Task task;
+
+	// directories are taken from the end, so the walk goes deep first and the queue stays short
+	private final Deque<Dir> dirs = new ConcurrentLinkedDeque<>();
+	private final Queue<File> files = new ConcurrentLinkedDeque<>();
+	private final AtomicInteger queuedFiles = new AtomicInteger();
+	// queued and running tasks, the mirror is done when it drops to 0
+	private final AtomicInteger pending = new AtomicInteger();
+	private final AtomicInteger active = new AtomicInteger();
+	private final Object lock = new Object();
+
+	private final Queue<Item> results = new ConcurrentLinkedQueue<>();
+	private final AtomicLong fileCount = new AtomicLong();
+	private final AtomicLong skipped = new AtomicLong();
+	private final AtomicLong directories = new AtomicLong();
+
+	private Mirror(FTPConnection conn, boolean download, int retryCount, Task task) {
+		this.conn = conn;
+		this.download = download;
+		this.retryCount = retryCount;
+		this.task = task;
+	}
+
+	/**
+	 * @param remote
+	 *            absolute path of the remote directory
+	 * @param local
+	 *            the local directory
+	 * @param download
+	 *            true to copy the remote tree to the local directory, false for the other way around
+	 * @param parallel
+	 *            number of connections used at most, including the caller's one
+	 * @param retryCount
+	 *            how often a failed file or listing is tried again
+	 * @param task
+	 *            transfers a file, the item has the remote path and the local resource
+	 */
+	public static Result run(FTPConnection conn, AFTPClient client, String remote, Resource local, boolean download,
+			int parallel, int retryCount, Task task) {
+		Mirror mirror = new Mirror(conn, download, retryCount, task);
+		mirror.addDir(new Dir("", remote, local));
+
+		for (int i = parallel; i > 1; i--) {
+			executor.execute(() -> {
+				if (mirror.pending.get() == 0)
+					return;
+				FTPConnectionPool pool = FTPConnectionPool.getInstance();
+				PooledFTPClient pooled;
+				try {
+					pooled = pool.borrowClient(conn);
+				} catch (Exception e) {
+					LogUtil.log(Log.LEVEL_DEBUG, "no additional connection for a mirror: " + e.getMessage());
+					return;
+				}
+				boolean ok = false;
+				try {
+					ok = mirror.work(pooled.getClient());
+				} finally {
+					if (ok) {
+						pooled.markSuccess();
+						pool.returnClient(pooled);
+					} else
+						pool.invalidateClient(pooled);
+				}
+			});
+		}
+
+		boolean ok = mirror.work(client);
+		mirror.await();
+		return new Result(mirror, ok);
+	}
+
+	/**
+	 * lists directories and transfers files with the given client until nothing is left
+	 *
+	 * @return false if the client broke and could not be reopened
+	 */
+	private boolean work(AFTPClient client) {
+		active.incrementAndGet();
+		try {
+			while (true) {
+				Dir dir = null;
+				File file = null;
+				// keep some files ready, but do not list more than needed
+				if (queuedFiles.get() < MAX_QUEUED_FILES)
+					dir = dirs.pollLast();
+				if (dir == null) {
+					file = files.poll();
+					if (file != null)
+						queuedFiles.decrementAndGet();
+					else
+						dir = dirs.pollLast();
+				}
+
+				if (dir == null && file == null) {
+					if (pending.get() == 0)
+						return true;
+					// the others are still listing, that may add work
+					synchronized (lock) {
+						try {
+							lock.wait(50);
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							return true;
+						}
+					}
+					continue;
+				}
+
+				boolean broken = dir != null ? list(client, dir) : transfer(client, file);
+				done();
+				if (broken && !BatchTransfer.reconnect(client, conn))
+					return false;
+			}
+		} finally {
+			// nobody is left to do what another client gave back
+			if (active.decrementAndGet() == 0)
+				drain();
+			synchronized (lock) {
+				lock.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * lists a directory, queues the files that need a transfer and the sub directories
+	 *
+	 * @return true if the connection broke or is in an unknown state
+	 */
+	private boolean list(AFTPClient client, Dir dir) {
+		dir.item.countAttempt();
+		try {
+			FTPFile[] remoteFiles = null;
+			boolean created = false;
+			if (download) {
+				if (!dir.local.isDirectory() && !dir.local.mkdirs() && !dir.local.isDirectory())
+					throw new DirectoryException("failed to create the local directory [" + dir.local + "]");
+			} else if (!client.directoryExists(dir.remote)) {
+				if (!client.makeDirectory(dir.remote))
+					throw new DirectoryException("failed to create the remote directory: " + reply(client));
+				created = true;
+			}
+			// LIST shows the time in the zone of the server, it is only the fallback
+			boolean exact = false;
+			if (!created) {
+				remoteFiles = client.listFilesExact(dir.remote);
+				exact = remoteFiles != null;
+				if (!exact)
+					remoteFiles = client.listFiles(dir.remote);
+				if (download && remoteFiles == null)
+					throw new DirectoryException("failed to list the remote directory: " + reply(client));
+			}
+			directories.incrementAndGet();
+
+			Map<String, FTPFile> remoteByName = new HashMap<>();
+			if (remoteFiles != null) {
+				for (FTPFile file: remoteFiles) {
+					if (file != null && !".".equals(file.getName()) && !"..".equals(file.getName()))
+						remoteByName.put(file.getName(), file);
+				}
+			}
+
+			if (download) {
+				for (FTPFile file: remoteByName.values()) {
+					String name = file.getName();
+					Resource local = dir.local.getRealResource(name);
+					if (file.isDirectory())
+						addDir(dir.child(name, local));
+					else if (file.isFile()) {
+						long time = time(file);
+						// the local copy got the time of the remote file, the file system may drop the milliseconds
+						boolean current = local.isFile() && local.length() == file.getSize() && time > 0
+								&& local.lastModified() >= time - 1000;
+						addFile(dir, name, local, time, current);
+					}
+				}
+			} else {
+				Resource[] children = dir.local.listResources();
+				if (children == null)
+					throw new DirectoryException("failed to list the local directory [" + dir.local + "]");
+				for (Resource local: children) {
+					String name = local.getName();
+					FTPFile file = remoteByName.get(name);
+					if (local.isDirectory())
+						addDir(dir.child(name, local));
+					else if (local.isFile()) {
+						long time = file == null ? 0 : time(file);
+						// tolerance, a listing may not show the seconds of the time the upload has set
+						boolean current = file != null && file.isFile() && file.getSize() == local.length() && time > 0
+								&& local.lastModified() <= time + precision(file, exact);
+						addFile(dir, name, local, local.lastModified(), current);
+					}
+				}
+			}
+			return false;
+		} catch (DirectoryException e) {
+			dir.item.fail(e.getMessage());
+			results.add(dir.item);
+			return false;
+		} catch (IOException e) {
+			dir.item.fail(e.getMessage() == null ? e.getClass().getName() : e.getMessage());
+			if (dir.item.getAttempts() <= retryCount)
+				addDir(dir);
+			else
+				results.add(dir.item);
+			return true;
+		} catch (RuntimeException e) {
+			// like BatchTransfer.attempt, the worker must go on or the mirror never ends
+			dir.item.fail(e.getMessage() == null ? e.getClass().getName() : e.getMessage());
+			results.add(dir.item);
+			LogUtil.log(Log.LEVEL_ERROR, e);
+			return true;
+		}
+	}
+
+	/**
+	 * transfers a file and gives the copy the modification time of the source
+	 *
+	 * @return true if the connection broke
+	 */
+	private boolean transfer(AFTPClient client, File file) {
+		boolean broken = BatchTransfer.attempt(client, file.item, task);
+		if (file.item.retry(retryCount)) {
+			addFile(file);
+			return broken;
+		}
+		if (file.item.isSucceeded() && file.time > 0) {
+			try {
+				if (download)
+					((Resource) file.item.getLocal()).setLastModified(file.time);
+				else
+					client.setModificationTime(file.item.getRemote(), file.time);
+			} catch (IOException | RuntimeException e) {
+				// the file is there, only the time is not
+				LogUtil.log(Log.LEVEL_DEBUG, "failed to set the modification time of [" + file.item.getRemote() + "]: "
+						+ e.getMessage());
+				broken = true;
+			}
+		}
+		results.add(file.item);
+		return broken;
+	}
+
+	private void addDir(Dir dir) {
+		pending.incrementAndGet();
+		dirs.add(dir);
+		wakeUp();
+	}
+
+	private void addFile(Dir dir, String name, Resource local, long time, boolean current) {
+		fileCount.incrementAndGet();
+		if (current) {
+			skipped.incrementAndGet();
+			return;
+		}
+		addFile(new File(new Item(dir.relative + name, join(dir.remote, name), local), time));
+	}
+
+	private void addFile(File file) {
+		pending.incrementAndGet();
+		queuedFiles.incrementAndGet();
+		files.add(file);
+		wakeUp();
+	}
+
+	private void done() {
+		if (pending.decrementAndGet() == 0)
+			wakeUp();
+	}
+
+	private void wakeUp() {
+		synchronized (lock) {
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * fails what is left, when all clients broke
+	 */
+	private void drain() {
+		Dir dir;
+		while ((dir = dirs.poll()) != null) {
+			dir.item.fail("no connection left to list the directory");
+			results.add(dir.item);
+			pending.decrementAndGet();
+		}
+		File file;
+		while ((file = files.poll()) != null) {
+			queuedFiles.decrementAndGet();
+			if (file.item.getError() == null)
+				file.item.fail("no connection left to transfer the file");
+			results.add(file.item);
+			pending.decrementAndGet();
+		}
+	}
+
+	/**
+	 * waits for the borrowed clients, the caller's client may be done while they still transfer
+	 */
+	private void await() {
+		synchronized (lock) {
+			while (pending.get() > 0 && active.get() > 0) {
+				try {
+					lock.wait(50);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+		if (pending.get() > 0)
+			drain();
+	}
+
+	private static String join(String dir, String name) {
+		return dir.endsWith("/") ? dir + name : dir + "/" + name;
+	}
+
+	private static String reply(AFTPClient client) {
+		String reply = client.getReplyString();
+		return reply == null ? "" : reply.trim();
+	}
+
+	private static long time(FTPFile file) {
+		Calendar cal = file.getTimestamp();
+		return cal == null ? 0 : cal.getTimeInMillis();
+	}
+
+	/**
+	 * @param exact
+	 *            true if the file is from {@link AFTPClient#listFilesExact(String)}
+	 * @return how precise the time of the listing is, a LIST of an FTP server only shows the minutes, or
+	 *         only the day for older files
+	 */
+	private static long precision(FTPFile file, boolean exact) {
+		Calendar cal = file.getTimestamp();
+		if (cal == null)
+			return 0;
+		if (exact)
+			return 1000;
+		if (cal.get(Calendar.SECOND) != 0)
+			return 1000;
+		if (cal.get(Calendar.HOUR_OF_DAY) != 0 || cal.get(Calendar.MINUTE) != 0)
+			return 60 * 1000;
+		return 24 * 60 * 60 * 1000;
+	}
+
+	/**
+	 * a directory to list
+	 */
+	private static final class Dir {
+
+		private final String relative;
+		private final String remote;
+		private final Resource local;
+		// the outcome, in case the listing fails
+		private final Item item;
+
+		private Dir(String relative, String remote, Resource local) {
+			this.relative = relative;
+			this.remote = remote;
+			this.local = local;
+			this.item = new Item(relative.isEmpty() ? "/" : relative, remote, local);
+		}
+
+		private Dir child(String name, Resource local) {
+			return new Dir(relative + name + "/", join(remote, name), local);
+		}
+	}
+
+	/**
+	 * a file to transfer
+	 */
+	private static final class File {
+
+		private final Item item;
+		// modification time of the source
+		private final long time;
+
+		private File(Item item, long time) {
+			this.item = item;
+			this.time = time;
+		}
+	}
+
+	/**
+	 * a failure of a directory, that is not worth another attempt
+	 */
+	private static final class DirectoryException extends Exception {
+
+		private static final long serialVersionUID = 1L;
+
+		private DirectoryException(String message) {
+			super(message);
+		}
+	}
+
+	/**
+	 * the outcome of a mirror
+	 */
+	public static final class Result {
+
+		private final Mirror mirror;
+		private final boolean clientOk;
+
+		private Result(Mirror mirror, boolean clientOk) {
+			this.mirror = mirror;
+			this.clientOk = clientOk;
+		}
+
+		/**
+		 * @return the files transferred or failed and the directories failed, files that were current
+		 *         already are only counted
+		 */
+		public Queue<Item> getItems() {
+			return mirror.results;
+		}
+
+		/**
+		 * @return the number of files found in the source tree
+		 */
+		public long getFiles() {
+			return mirror.fileCount.get();
+		}
+
+		/**
+		 * @return the number of files that were current already
+		 */
+		public long getSkipped() {
+			return mirror.skipped.get();
+		}
+
+		/**
+		 * @return the number of directories listed
+		 */
+		public long getDirectories() {
+			return mirror.directories.get();
+		}
+
+		/**
+		 * @return false if the caller's client is broken and should not be used anymore
+		 */
+		public boolean isClientOk() {
+			return clientOk;
+		}
+	}
+}
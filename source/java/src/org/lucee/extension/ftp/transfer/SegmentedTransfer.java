@@ -0,0 +1,298 @@
+package org.lucee.extension.ftp.transfer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.lucee.extension.ftp.AFTPClient;
+import org.lucee.extension.ftp.FTPConnection;
+import org.lucee.extension.ftp.pool.FTPConnectionPool;
+import org.lucee.extension.ftp.pool.PooledFTPClient;
+import org.lucee.extension.ftp.util.LogUtil;
+
+import lucee.commons.io.log.Log;
+import lucee.loader.engine.CFMLEngineFactory;
+import lucee.loader.util.Util;
+
+/**
+ * Transfers a file in segments over several connections at the same time, so a transfer over a link
+ * with high latency is not limited to what a single TCP window allows.
+ *
+ * The caller's client works on the segments right away, the other segments are taken by clients
+ * borrowed from the pool in the background. If the pool has no client to spare, the caller's client
+ * simply does more segments, so a small pool slows the transfer down but never blocks it.
+ */
+public final class SegmentedTransfer {
+
+	// files are only split in segments of at least this size, "lucee.ftp.parallel.minSegmentSize" (MB)
+	private static final long MIN_SEGMENT_SIZE = Math.max(1, CFMLEngineFactory.getInstance().getCastUtil()
+			.toIntValue(Util.getSystemPropOrEnvVar("lucee.ftp.parallel.minSegmentSize", ""), 8)) * 1024L * 1024L;
+
+	private static final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+		Thread t = new Thread(r, "ftp-segmented-transfer");
+		t.setDaemon(true);
+		return t;
+	});
+
+	private SegmentedTransfer() {
+	}
+
+	/**
+	 * @return the number of segments a file of this size is split into, 1 if it is not worth it
+	 */
+	public static int segments(long size, int parallel) {
+		if (parallel < 2 || size <= 0)
+			return 1;
+		return (int) Math.max(1, Math.min(parallel, size / MIN_SEGMENT_SIZE));
+	}
+
+	/**
+	 * downloads the remote file into the local file, the file type of the client must be binary. The
+	 * reply of the client is positive afterwards, a segment that ends before the end of the file leaves
+	 * an error reply (f.e. 426) on its client.
+	 *
+	 * @param remote
+	 *            absolute path of the remote file, the borrowed clients may have another working
+	 *            directory than the caller's
+	 * @param size
+	 *            size of the remote file
+	 */
+	public static void download(FTPConnection conn, AFTPClient client, String remote, long size, File local,
+			int parallel) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(local, "rw")) {
+			raf.setLength(size);
+			FileChannel channel = raf.getChannel();
+			run(conn, client, size, segments(size, parallel), (c, offset, length) -> {
+				try (OutputStream os = new BufferedOutputStream(new PositionalOutputStream(channel, offset), 65536)) {
+					if (!c.retrieveFile(remote, os, offset, length))
+						throw new IOException("failed to download the segment at offset [" + offset + "] of [" + remote
+								+ "]: " + c.getReplyString());
+				}
+			});
+		}
+		long remoteSize = client.getSize(remote);
+		if (remoteSize != size)
+			throw new IOException("the remote file [" + remote + "] has [" + remoteSize + "] bytes instead of [" + size
+					+ "], it changed during the download");
+	}
+
+	/**
+	 * uploads the local file to the remote file, the file type of the client must be binary. Only works
+	 * if the server can create a file with a given size (SFTP), so the segments can be written in any
+	 * order.
+	 *
+	 * @param remote
+	 *            absolute path of the remote file, the borrowed clients may have another working
+	 *            directory than the caller's
+	 * @return false if the file was not uploaded, because it is too small or the server does not support
+	 *         it
+	 */
+	public static boolean upload(FTPConnection conn, AFTPClient client, String remote, File local, int parallel)
+			throws IOException {
+		long size = local.length();
+		int count = segments(size, parallel);
+		if (count < 2 || !client.allocate(remote, size))
+			return false;
+		try (RandomAccessFile raf = new RandomAccessFile(local, "r")) {
+			FileChannel channel = raf.getChannel();
+			run(conn, client, size, count, (c, offset, length) -> {
+				try (InputStream is = new BufferedInputStream(new PositionalInputStream(channel, offset, length), 65536)) {
+					if (!c.storeFile(remote, is, offset))
+						throw new IOException("failed to upload the segment at offset [" + offset + "] of [" + remote
+								+ "]: " + c.getReplyString());
+				}
+			});
+		}
+		long written = client.getSize(remote);
+		if (written != size)
+			throw new IOException("the uploaded file [" + remote + "] has [" + written + "] bytes instead of [" + size + "]");
+		return true;
+	}
+
+	private static void run(FTPConnection conn, AFTPClient client, long size, int count, Segment task)
+			throws IOException {
+		Queue<long[]> segments = new ConcurrentLinkedQueue<>();
+		long segmentSize = (size + count - 1) / count;
+		for (long offset = 0; offset < size; offset += segmentSize) {
+			segments.add(new long[] { offset, Math.min(segmentSize, size - offset) });
+		}
+		Worker worker = new Worker(segments, task);
+
+		// the other clients join as soon as the pool hands them out
+		for (int i = segments.size(); i > 1; i--) {
+			executor.execute(() -> {
+				if (!worker.hasWork())
+					return;
+				FTPConnectionPool pool = FTPConnectionPool.getInstance();
+				PooledFTPClient pooled;
+				try {
+					pooled = pool.borrowClient(conn);
+				} catch (Exception e) {
+					LogUtil.log(Log.LEVEL_DEBUG, "no additional connection for a segmented transfer: " + e.getMessage());
+					return;
+				}
+				boolean ok = false;
+				try {
+					ok = worker.work(pooled.getClient());
+				} finally {
+					if (ok)
+						pool.returnClient(pooled);
+					else
+						pool.invalidateClient(pooled);
+				}
+			});
+		}
+
+		// the others may still write into the file, it is closed after they are done
+		try {
+			worker.work(client);
+		} finally {
+			worker.await();
+		}
+	}
+
+	/**
+	 * transfers a single segment
+	 */
+	private interface Segment {
+		public void transfer(AFTPClient client, long offset, long length) throws IOException;
+	}
+
+	private static final class Worker {
+
+		private final Queue<long[]> segments;
+		private final Segment task;
+		private final CountDownLatch done;
+		private final AtomicReference<IOException> failure = new AtomicReference<>();
+
+		private Worker(Queue<long[]> segments, Segment task) {
+			this.segments = segments;
+			this.task = task;
+			this.done = new CountDownLatch(segments.size());
+		}
+
+		/**
+		 * transfers segments with the given client until none are left
+		 *
+		 * @return false if a segment failed with this client, an unchecked exception fails the transfer
+		 *         like an IOException
+		 */
+		private boolean work(AFTPClient client) {
+			long[] segment;
+			while ((segment = segments.poll()) != null) {
+				try {
+					// after a failure of another client the remaining segments are only counted down
+					if (failure.get() == null) {
+						client.setFileType(AFTPClient.FILE_TYPE_BINARY);
+						// the segments are ranges of the uncompressed file
+						client.setCompression(false);
+						task.transfer(client, segment[0], segment[1]);
+					}
+				} catch (IOException | RuntimeException e) {
+					if (e instanceof RuntimeException)
+						LogUtil.log(Log.LEVEL_ERROR, e);
+					failure.compareAndSet(null, e instanceof IOException ? (IOException) e
+							: new IOException("segment at offset [" + segment[0] + "] failed: " + e.getMessage(), e));
+					// no need to wait for the segments nobody took yet
+					while (segments.poll() != null)
+						done.countDown();
+					return false;
+				} finally {
+					done.countDown();
+				}
+			}
+			return true;
+		}
+
+		private boolean hasWork() {
+			return !segments.isEmpty();
+		}
+
+		private void await() throws IOException {
+			try {
+				done.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				failure.compareAndSet(null, new IOException("segmented transfer interrupted"));
+			}
+			IOException e = failure.get();
+			if (e != null)
+				throw e;
+		}
+	}
+
+	/**
+	 * reads length bytes from the file channel starting at the given position, several streams can read
+	 * from the same channel at the same time
+	 */
+	private static final class PositionalInputStream extends InputStream {
+
+		private final FileChannel channel;
+		private long position;
+		private long remaining;
+
+		private PositionalInputStream(FileChannel channel, long position, long length) {
+			this.channel = channel;
+			this.position = position;
+			this.remaining = length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (remaining <= 0)
+				return -1;
+			int read = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, remaining)), position);
+			if (read == -1)
+				return -1;
+			position += read;
+			remaining -= read;
+			return read;
+		}
+	}
+
+	/**
+	 * writes to the file channel starting at the given position, several streams can write to the same
+	 * channel at the same time
+	 */
+	private static final class PositionalOutputStream extends OutputStream {
+
+		private final FileChannel channel;
+		private long position;
+
+		private PositionalOutputStream(FileChannel channel, long position) {
+			this.channel = channel;
+			this.position = position;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+			while (buffer.hasRemaining()) {
+				position += channel.write(buffer, position);
+			}
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package org.lucee.extension.ftp.util;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.NoRouteToHostException;
+import java.net.PortUnreachableException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import lucee.commons.io.log.Log;
+import lucee.loader.engine.CFMLEngineFactory;
+import lucee.loader.util.Util;
+
+/**
+ * Resolves host names to all their addresses (A and AAAA records) and caches the result for
+ * "lucee.ftp.dns.ttl" seconds (default 60), so a host that moves is picked up without a restart,
+ * while not every connect pays for a lookup. If a lookup fails, the last known addresses are used.
+ */
+public final class DNSCache {
+
+	private static final long TTL_MS = CFMLEngineFactory.getInstance().getCastUtil()
+			.toIntValue(Util.getSystemPropOrEnvVar("lucee.ftp.dns.ttl", null), 60) * 1000L;
+
+	private static final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+	private DNSCache() {
+	}
+
+	/**
+	 * @return all addresses of the host, in the order the resolver returned them
+	 */
+	public static InetAddress[] resolve(String host) throws UnknownHostException {
+		if (host == null || TTL_MS <= 0)
+			return InetAddress.getAllByName(host);
+
+		String key = host.toLowerCase();
+		Entry entry = entries.get(key);
+		long now = System.currentTimeMillis();
+		if (entry != null && entry.expires > now)
+			return entry.addresses;
+
+		try {
+			InetAddress[] addresses = InetAddress.getAllByName(host);
+			entries.put(key, new Entry(addresses, now + TTL_MS));
+			return addresses;
+		} catch (UnknownHostException e) {
+			if (entry == null)
+				throw e;
+			// the name server is not reachable, better the last known addresses than none
+			LogUtil.log(Log.LEVEL_WARN, "failed to resolve [" + host + "], using the last known addresses: " + e.getMessage());
+			entries.put(key, new Entry(entry.addresses, now + TTL_MS));
+			return entry.addresses;
+		}
+	}
+
+	/**
+	 * Connects to the addresses of the host one after the other, until one accepts the connection. Only
+	 * failures to reach an address (refused, unreachable, timeout) move on to the next address, any other
+	 * failure (f.e. a failed login) ends the attempt.
+	 */
+	public static <T> T connect(String host, Connector<T> connector) throws IOException {
+		InetAddress[] addresses = resolve(host);
+		IOException last = null;
+		for (InetAddress address: addresses) {
+			try {
+				return connector.connect(address);
+			} catch (IOException e) {
+				if (!isUnreachable(e))
+					throw e;
+				last = e;
+				if (addresses.length > 1)
+					LogUtil.log(Log.LEVEL_INFO, "failed to connect to [" + host + "] at [" + address.getHostAddress()
+							+ "]: " + e.getMessage());
+			}
+		}
+		throw last;
+	}
+
+	private static boolean isUnreachable(Throwable t) {
+		while (t != null) {
+			if (t instanceof ConnectException || t instanceof NoRouteToHostException
+					|| t instanceof PortUnreachableException || t instanceof SocketTimeoutException)
+				return true;
+			t = t.getCause();
+		}
+		return false;
+	}
+
+	public interface Connector<T> {
+		public T connect(InetAddress address) throws IOException;
+	}
+
+	private static final class Entry {
+		private final InetAddress[] addresses;
+		private final long expires;
+
+		private Entry(InetAddress[] addresses, long expires) {
+			this.addresses = addresses;
+			this.expires = expires;
+		}
+	}
+}
@@ -2,14 +2,19 @@ package org.lucee.extension.ftp.util;
 
 import lucee.commons.io.log.Log;
 import lucee.loader.engine.CFMLEngineFactory;
+import lucee.runtime.PageContext;
+import lucee.runtime.PageSource;
 import lucee.runtime.config.Config;
 
 public class LogUtil {
 
+	// config of the last request, used by threads without a config of their own (pool evictor, warm-up)
+	private static volatile Config lastConfig;
+
 	public static void log(int level, Throwable t) {
 		Log log = log();
 		if (log != null) {
-			log.log(Log.LEVEL_WARN, "ftp", t);
+			log.log(level, "ftp", t);
 		}
 	}
 
@@ -20,8 +25,25 @@ public class LogUtil {
 		}
 	}
 
+	/**
+	 * @return display path of the template currently executed by this thread, null if there is none
+	 */
+	public static String currentTemplate() {
+		try {
+			PageContext pc = CFMLEngineFactory.getInstance().getThreadPageContext();
+			PageSource ps = pc == null ? null : pc.getCurrentTemplatePageSource();
+			return ps == null ? null : ps.getDisplayPath();
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
 	private static Log log() {
 		Config config = CFMLEngineFactory.getInstance().getThreadConfig();
+		if (config != null)
+			lastConfig = config;
+		else
+			config = lastConfig;
 		Log log = null;
 		if (config != null) {
 			try {
@@ -23,15 +23,18 @@ import java.io.Serializable;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
-import org.apache.commons.net.ftp.FTPClient;
 import org.apache.commons.net.ftp.FTPFile;
+import org.lucee.extension.ftp.ExtendedFTPClient;
 
-public final class FTPResourceClient extends FTPClient {
+public final class FTPResourceClient extends ExtendedFTPClient {
 
 	private String workingDirectory = null;
 
 	private final FTPConnectionData ftpConnectionData;
 	private long lastAccess;
+	private volatile String borrowSite;
+	private volatile long borrowTime;
+	private volatile long lastActivity;
 	private final Object token = new SerializableObject();
 	private final Object sync = new SerializableObject();
 
@@ -54,6 +57,40 @@ public final class FTPResourceClient extends FTPClient {
 		this.lastAccess = System.currentTimeMillis();
 	}
 
+	/**
+	 * the provider handed out this client to the given template
+	 */
+	void borrowed(String borrowSite) {
+		this.borrowSite = borrowSite;
+		this.borrowTime = System.currentTimeMillis();
+		this.lastActivity = borrowTime;
+	}
+
+	/**
+	 * @return template the client was last handed out to, null if unknown
+	 */
+	String getBorrowSite() {
+		return borrowSite;
+	}
+
+	long getBorrowTime() {
+		return borrowTime;
+	}
+
+	/**
+	 * @return when the client was borrowed or last moved data of a stream, whatever is later
+	 */
+	long getLastActivity() {
+		return lastActivity;
+	}
+
+	@Override
+	public void keepAlive() throws IOException {
+		// called by the streams for every read and write
+		lastActivity = System.currentTimeMillis();
+		super.keepAlive();
+	}
+
 	/**
 	 * @return the lastAccess
 	 */
@@ -39,6 +39,7 @@ public final class FTPResourceInputStream extends InputStream {
 	public FTPResourceInputStream(FTPResourceClient client, FTPResource res, InputStream is) {
 		this.client = client;
 		this.res = res;
+		client.transferStarted();
 		this.is = is;
 	}
 
@@ -55,6 +56,7 @@ public final class FTPResourceInputStream extends InputStream {
 
 	@Override
 	public int read() throws IOException {
+		client.keepAlive();
 		return is.read();
 	}
 
@@ -75,11 +77,13 @@ public final class FTPResourceInputStream extends InputStream {
 
 	@Override
 	public int read(byte[] b, int off, int len) throws IOException {
+		client.keepAlive();
 		return is.read(b, off, len);
 	}
 
 	@Override
 	public int read(byte[] b) throws IOException {
+		client.keepAlive();
 		return is.read(b);
 	}
 
@@ -90,6 +94,7 @@ public final class FTPResourceInputStream extends InputStream {
 
 	@Override
 	public long skip(long n) throws IOException {
+		client.keepAlive();
 		return is.skip(n);
 	}
 
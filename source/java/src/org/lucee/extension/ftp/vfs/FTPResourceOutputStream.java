@@ -37,6 +37,7 @@ public final class FTPResourceOutputStream extends OutputStream {
 	public FTPResourceOutputStream(FTPResourceClient client, Resource res, OutputStream os) {
 		this.client = client;
 		this.res = res;
+		client.transferStarted();
 		this.os = os;
 	}
 
@@ -57,6 +58,7 @@ public final class FTPResourceOutputStream extends OutputStream {
 
 	@Override
 	public void write(int b) throws IOException {
+		client.keepAlive();
 		os.write(b);
 	}
 
@@ -67,11 +69,13 @@ public final class FTPResourceOutputStream extends OutputStream {
 
 	@Override
 	public void write(byte[] b, int off, int len) throws IOException {
+		client.keepAlive();
 		os.write(b, off, len);
 	}
 
 	@Override
 	public void write(byte[] b) throws IOException {
+		client.keepAlive();
 		os.write(b);
 	}
 
@@ -20,9 +20,13 @@ package org.lucee.extension.ftp.vfs;
 
 import java.io.IOException;
 import java.net.SocketException;
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.lucee.extension.ftp.ExtendedFTPClient;
+import org.lucee.extension.ftp.SocketSettings;
 import org.lucee.extension.ftp.util.LogUtil;
 import org.lucee.extension.ftp.util.ReflectionUtil;
 import org.lucee.extension.ftp.vfs.FTPConnectionData.DataAndPath;
@@ -50,6 +54,12 @@ public final class FTPResourceProvider implements ResourceProvider {
 	private int socketTimeout = -1;
 	private int lockTimeout = 20000;
 	private int cache = 20000;
+	private int abandonedTimeout = 600000;
+	private int keepAlive = eng().getCastUtil().toIntValue(Util.getSystemPropOrEnvVar("lucee.ftp.keepAlive", ""), 0);
+	private SocketSettings socketSettings = SocketSettings.NONE;
+
+	// clients handed out and not returned yet
+	private final Map<FTPResourceClient, FTPResourceClient> borrowed = new ConcurrentHashMap<>();
 
 	private FTPResourceClientCloser closer = null;
 	private ResourceLock _lock;
@@ -90,6 +100,23 @@ public final class FTPResourceProvider implements ResourceProvider {
 			if (strCache != null) {
 				cache = eng().getCastUtil().toIntValue(strCache, cache);
 			}
+			// abandoned-timeout
+			strTimeout = (String) arguments.get("abandoned-timeout");
+			if (strTimeout != null) {
+				abandonedTimeout = eng().getCastUtil().toIntValue(strTimeout, abandonedTimeout);
+			}
+			// buffer-size, socket-buffer-size, tcp-no-delay
+			String strBufferSize = (String) arguments.get("buffer-size");
+			String strSocketBufferSize = (String) arguments.get("socket-buffer-size");
+			String strTcpNoDelay = (String) arguments.get("tcp-no-delay");
+			socketSettings = new SocketSettings(eng().getCastUtil().toIntValue(strBufferSize, -1),
+					eng().getCastUtil().toIntValue(strSocketBufferSize, -1),
+					strTcpNoDelay == null ? null : eng().getCastUtil().toBoolean(strTcpNoDelay, null));
+			// keep-alive (seconds)
+			String strKeepAlive = (String) arguments.get("keep-alive");
+			if (strKeepAlive != null) {
+				keepAlive = eng().getCastUtil().toIntValue(strKeepAlive, keepAlive);
+			}
 		}
 
 		return this;
@@ -115,6 +142,14 @@ public final class FTPResourceProvider implements ResourceProvider {
 			client = new FTPResourceClient(data, cache);
 			if (socketTimeout > 0)
 				client.setSoTimeout(socketTimeout);
+			client.setBufferSize(socketSettings.getBufferSize());
+			client.setSendDataSocketBufferSize(socketSettings.getSocketBufferSize());
+			client.setReceieveDataSocketBufferSize(socketSettings.getSocketBufferSize());
+			client.setDataTcpNoDelay(socketSettings.getTcpNoDelay());
+			if (keepAlive > 0) {
+				client.setControlKeepAliveTimeout(Duration.ofSeconds(keepAlive));
+				client.setControlKeepAliveReplyTimeout(Duration.ofMillis(ExtendedFTPClient.KEEP_ALIVE_REPLY_TIMEOUT_MS));
+			}
 		}
 
 		if (!client.isConnected()) {
@@ -133,6 +168,8 @@ public final class FTPResourceProvider implements ResourceProvider {
 			if (replyCode >= 400)
 				throw new FTPException(replyCode);
 		}
+		client.borrowed(LogUtil.currentTemplate());
+		borrowed.put(client, client);
 		startCloser();
 		return client;
 	}
@@ -153,6 +190,8 @@ public final class FTPResourceProvider implements ResourceProvider {
 			client.connect(data.host, data.port);
 		else
 			client.connect(data.host);
+		if (socketSettings.getTcpNoDelay())
+			client.setTcpNoDelay(true);
 		if (!Util.isEmpty(data.username))
 			client.login(data.username, data.password);
 	}
@@ -161,6 +200,7 @@ public final class FTPResourceProvider implements ResourceProvider {
 		if (client == null)
 			return;
 		client.touch();
+		borrowed.remove(client);
 		clients.put(client.getFtpConnectionData().toString(), client);
 	}
 
@@ -213,6 +253,35 @@ public final class FTPResourceProvider implements ResourceProvider {
 		}
 	}
 
+	/**
+	 * disconnects the clients handed out and not used for longer than the abandoned-timeout (f.e. a
+	 * stream of getInputStream that was not closed), so they do not hold server connections forever. A
+	 * stream that still moves data is not touched, however long the transfer takes.
+	 */
+	public void reclaimAbandoned() {
+		if (abandonedTimeout <= 0)
+			return;
+		long now = System.currentTimeMillis();
+		for (FTPResourceClient client: borrowed.keySet()) {
+			if (client.getLastActivity() + abandonedTimeout >= now)
+				continue;
+			if (borrowed.remove(client) == null)
+				continue;
+			String site = client.getBorrowSite();
+			LogUtil.log(Log.LEVEL_WARN, "reclaimed FTP connection to [" + client.getFtpConnectionData().host
+					+ "] borrowed by [" + (site == null ? "unknown" : site) + "], it was not used for "
+					+ (now - client.getLastActivity()) + "ms and not returned for " + (now - client.getBorrowTime())
+					+ "ms");
+			if (client.isConnected()) {
+				try {
+					client.disconnect();
+				} catch (IOException e) {
+					LogUtil.log(Log.LEVEL_WARN, e);
+				}
+			}
+		}
+	}
+
 	class FTPResourceClientCloser extends Thread {
 
 		private FTPResourceProvider provider;
@@ -227,7 +296,8 @@ public final class FTPResourceProvider implements ResourceProvider {
 			do {
 				sleepEL();
 				provider.clean();
-			} while (!clients.isEmpty());
+				provider.reclaimAbandoned();
+			} while (!clients.isEmpty() || !borrowed.isEmpty());
 			// lucee.print.ln("closer stop");
 		}
 